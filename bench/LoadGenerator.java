@@ -0,0 +1,289 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives {@code /analyze} over HTTP and reports throughput and latency percentiles. Starts
+ * {@link CodeAnalyzerServer} in-process on a free port unless {@code --url} points elsewhere;
+ * {@code --nio} starts {@link NioServer} instead, to compare the two front ends.
+ *
+ * <ul>
+ *   <li>{@code --concurrency 1,4,16}: closed loop, that many clients each sending its next
+ *   request as soon as the previous one completes.</li>
+ *   <li>{@code --rate 50,200}: open loop, requests sent on a fixed schedule of that many per
+ *   second whether or not earlier ones have completed.</li>
+ * </ul>
+ *
+ * Latencies are corrected for coordinated omission. In open-loop runs each request is timed
+ * from when it was scheduled to be sent, so time spent queued behind a slow server counts.
+ * Closed-loop clients only send when the previous request is done, so a stall hides the
+ * requests that would have been sent during it. As HdrHistogram does, those are added back:
+ * a latency of L adds L - i, L - 2i, ... for an expected interval i, taken here as the median
+ * latency of the run. Raw percentiles are printed alongside for comparison.
+ *
+ * Bodies are generated classes of 10 (small), 100 (medium) and 1000 (large) methods, mixed
+ * by {@code --mix}. Each gets a unique trailing comment so the result cache never answers,
+ * unless {@code --repeat-bodies} is given.
+ *
+ * <pre>
+ * java -cp out:lib/javaparser-core-3.25.10.jar LoadGenerator --concurrency 1,4,16 --duration 10
+ * java -cp out:lib/javaparser-core-3.25.10.jar LoadGenerator --rate 20,50 --mix small=80,large=20
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final String[] SIZES = {"small", "medium", "large"};
+    private static final int[] SIZE_METHODS = {10, 100, 1000};
+
+    private final HttpClient client;
+    private final URI uri;
+    private final byte[][] bodies = new byte[SIZES.length][];
+    private final int[] cumulativeWeights = new int[SIZES.length];
+    private final boolean repeatBodies;
+    private final AtomicLong sequence = new AtomicLong();
+
+    LoadGenerator(URI uri, int[] weights, boolean repeatBodies) {
+        this.uri = uri;
+        this.repeatBodies = repeatBodies;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        int total = 0;
+        for (int i = 0; i < SIZES.length; i++) {
+            bodies[i] = ParserBenchmark.syntheticSource(SIZE_METHODS[i]).getBytes(StandardCharsets.UTF_8);
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> concurrency = new ArrayList<>();
+        List<Integer> rates = new ArrayList<>();
+        int duration = 10;
+        int warmup = 5;
+        int[] weights = {70, 25, 5};
+        boolean repeatBodies = false;
+        String url = null;
+        boolean nio = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--concurrency" -> concurrency.addAll(ints(args[++i]));
+                case "--rate" -> rates.addAll(ints(args[++i]));
+                case "--duration" -> duration = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--mix" -> weights = mix(args[++i]);
+                case "--repeat-bodies" -> repeatBodies = true;
+                case "--url" -> url = args[++i];
+                case "--nio" -> nio = true;
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.err.println("Usage: LoadGenerator [--concurrency n,...] [--rate r,...] [--duration s]"
+                            + " [--warmup s] [--mix small=70,medium=25,large=5] [--repeat-bodies] [--url base | --nio]");
+                    System.exit(2);
+                }
+            }
+        }
+        if (concurrency.isEmpty() && rates.isEmpty()) {
+            concurrency.addAll(List.of(1, 4, 16));
+        }
+
+        HttpServer server = null;
+        NioServer nioServer = null;
+        if (url == null && nio) {
+            nioServer = NioServer.start(0);
+            url = "http://localhost:" + nioServer.port();
+        } else if (url == null) {
+            server = CodeAnalyzerServer.start(0);
+            url = "http://localhost:" + server.getAddress().getPort();
+        }
+        System.out.println("Target: " + url + "/analyze, mix small/medium/large = " + Arrays.toString(weights)
+                + (repeatBodies ? ", repeated bodies" : ", unique bodies"));
+
+        LoadGenerator generator = new LoadGenerator(URI.create(url + "/analyze"), weights, repeatBodies);
+        if (warmup > 0) {
+            System.out.println("Warming up for " + warmup + "s...");
+            generator.closedLoop(Math.max(1, Runtime.getRuntime().availableProcessors()), warmup);
+        }
+
+        System.out.printf("%-12s %9s %7s %9s %9s %9s %9s %9s %11s%n",
+                "load", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "raw p99 ms");
+        for (int clients : concurrency) {
+            generator.closedLoop(clients, duration).print("c=" + clients);
+        }
+        for (int rate : rates) {
+            generator.openLoop(rate, duration).print("r=" + rate + "/s");
+        }
+
+        if (server != null) server.stop(0);
+        if (nioServer != null) nioServer.close();
+        System.exit(0);
+    }
+
+    /** {@code clients} threads sending back to back for {@code seconds}. */
+    Result closedLoop(int clients, int seconds) throws InterruptedException {
+        Result result = new Result();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            threads.add(Thread.ofPlatform().name("client-" + c).start(() -> {
+                while (System.nanoTime() < end) {
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = client.send(request(), HttpResponse.BodyHandlers.discarding());
+                        result.record(System.nanoTime() - sent, response.statusCode());
+                    } catch (Exception e) {
+                        result.record(System.nanoTime() - sent, -1);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        result.finish(System.nanoTime() - start, true);
+        return result;
+    }
+
+    /** Requests sent at {@code rate} per second on a fixed schedule for {@code seconds}. */
+    Result openLoop(int rate, int seconds) throws InterruptedException {
+        Result result = new Result();
+        int total = rate * seconds;
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        CountDownLatch done = new CountDownLatch(total);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < total; i++) {
+            long intended = start + i * interval;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // Timed from the schedule, not from when the request actually went out
+            client.sendAsync(request(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        result.record(System.nanoTime() - intended, error == null ? response.statusCode() : -1);
+                        done.countDown();
+                    });
+        }
+        if (!done.await(60, TimeUnit.SECONDS)) {
+            System.err.println("Gave up waiting for " + done.getCount() + " outstanding requests");
+        }
+        result.finish(System.nanoTime() - start, false);
+        return result;
+    }
+
+    private HttpRequest request() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int size = 0;
+        while (pick >= cumulativeWeights[size]) {
+            size++;
+        }
+
+        byte[] body = bodies[size];
+        if (!repeatBodies) {
+            byte[] suffix = ("\n// request " + sequence.incrementAndGet() + "\n").getBytes(StandardCharsets.UTF_8);
+            byte[] unique = Arrays.copyOf(body, body.length + suffix.length);
+            System.arraycopy(suffix, 0, unique, body.length, suffix.length);
+            body = unique;
+        }
+        return HttpRequest.newBuilder(uri)
+                .header("Content-Type", "text/plain; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    private static List<Integer> ints(String csv) {
+        List<Integer> values = new ArrayList<>();
+        for (String part : csv.split(",")) {
+            values.add(Integer.parseInt(part.trim()));
+        }
+        return values;
+    }
+
+    private static int[] mix(String spec) {
+        int[] weights = new int[SIZES.length];
+        for (String part : spec.split(",")) {
+            String[] kv = part.split("=");
+            int index = Arrays.asList(SIZES).indexOf(kv[0].trim());
+            if (index < 0) throw new IllegalArgumentException("Unknown payload size: " + kv[0]);
+            weights[index] = Integer.parseInt(kv[1].trim());
+        }
+        if (Arrays.stream(weights).sum() <= 0) throw new IllegalArgumentException("Empty mix: " + spec);
+        return weights;
+    }
+
+    /** Latencies of one run, in nanoseconds. */
+    static class Result {
+        private long[] latencies = new long[1024];
+        private int count;
+        private final LongAdder errors = new LongAdder();
+        private long[] corrected;
+        private long[] raw;
+        private long elapsed;
+
+        synchronized void record(long nanos, int status) {
+            if (status != 200) errors.increment();
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = nanos;
+        }
+
+        synchronized void finish(long elapsedNanos, boolean closedLoop) {
+            elapsed = elapsedNanos;
+            raw = Arrays.copyOf(latencies, count);
+            Arrays.sort(raw);
+            corrected = closedLoop ? correct(raw, percentile(raw, 0.5)) : raw;
+        }
+
+        /** Adds the samples a closed-loop client omitted while it waited on a slow response. */
+        private static long[] correct(long[] sorted, long interval) {
+            if (interval <= 0) return sorted;
+            long[] out = Arrays.copyOf(sorted, sorted.length);
+            int n = sorted.length;
+            for (long value : sorted) {
+                for (long missed = value - interval; missed > interval; missed -= interval) {
+                    if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                    out[n++] = missed;
+                }
+            }
+            out = Arrays.copyOf(out, n);
+            Arrays.sort(out);
+            return out;
+        }
+
+        private static long percentile(long[] sorted, double q) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(q * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        void print(String label) {
+            System.out.printf("%-12s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %11.2f%n",
+                    label, raw.length, errors.sum(), raw.length / (elapsed / 1e9),
+                    millis(percentile(corrected, 0.5)), millis(percentile(corrected, 0.99)),
+                    millis(percentile(corrected, 0.999)), millis(percentile(corrected, 1.0)),
+                    millis(percentile(raw, 0.99)));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
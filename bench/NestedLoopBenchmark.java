@@ -0,0 +1,62 @@
+import com.github.javaparser.ast.CompilationUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link ComplexityVisitor} alone (parsing excluded) on a method whose while loops are
+ * nested {@code depth} deep, for growing depths. Work per AST node should stay flat; if a
+ * loop re-scans its body, time per node grows with the depth.
+ *
+ * <pre>
+ * java -Xss64m -cp out:lib/javaparser-core-3.25.10.jar NestedLoopBenchmark [maxDepth]
+ * </pre>
+ */
+public class NestedLoopBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+
+        // Deep ASTs need a deep stack for both the parser and the visitor
+        Thread runner = new Thread(null, () -> {
+            for (int depth = 50; depth <= maxDepth; depth *= 2) {
+                measure(depth);
+            }
+        }, "bench", 1L << 30);
+        runner.start();
+        runner.join();
+    }
+
+    private static void measure(int depth) {
+        CompilationUnit cu = Analyzer.parse(nestedWhile(depth));
+        long nodes = cu.stream().count();
+
+        // Warm up, then run for about a second
+        for (int i = 0; i < 20; i++) {
+            new ComplexityVisitor().visit(cu, null);
+        }
+        int runs = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(1);
+        while (System.nanoTime() < end) {
+            new ComplexityVisitor().visit(cu, null);
+            runs++;
+        }
+        double nanosPerRun = (double) (System.nanoTime() - start) / runs;
+
+        System.out.printf("depth %5d: %8d nodes, %10.1f us/visit, %6.1f ns/node%n",
+                depth, nodes, nanosPerRun / 1000, nanosPerRun / nodes);
+    }
+
+    static String nestedWhile(int depth) {
+        StringBuilder sb = new StringBuilder("class Nested {\n  void m(int n) {\n");
+        for (int i = 0; i < depth; i++) {
+            sb.append("    int i").append(i).append(" = n;\n");
+            sb.append("    while (i").append(i).append(" > 0) {\n");
+            sb.append("      i").append(i).append(i % 2 == 0 ? " /= 2;\n" : "--;\n");
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append("    }\n");
+        }
+        return sb.append("  }\n}\n").toString();
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends hand-written requests to an in-process {@link NioServer} and checks the answers,
+ * for the cases an HTTP client library would never produce: malformed request lines,
+ * oversized declared bodies, pipelined requests. Each check runs on fresh connections and is
+ * followed by a valid request, so a check that breaks a selector loop fails the next one.
+ * Exits with status 1 if any check fails.
+ *
+ * <pre>
+ * java -cp out:lib/javaparser-core-3.25.10.jar NioServerCheck
+ * </pre>
+ */
+public class NioServerCheck {
+
+    private static final Pattern STATUS = Pattern.compile("HTTP/1\\.1 (\\d{3}) ");
+    private static final String SOURCE = "class A { int f(int n) { int s = 0; for (int i = 0; i < n; i++) s += i; return s; } }";
+
+    private final int port;
+    private int failures;
+
+    NioServerCheck(int port) {
+        this.port = port;
+    }
+
+    // Small enough for the body budget check below; read when ServerConfig is first loaded
+    private static final long BODY_BUFFER_BYTES = 1 << 20;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("analyzer.bodyBufferBytes", String.valueOf(BODY_BUFFER_BYTES));
+        try (NioServer server = NioServer.start(0)) {
+            NioServerCheck check = new NioServerCheck(server.port());
+            check.run();
+            if (check.failures > 0) {
+                System.err.println(check.failures + " check(s) failed");
+                System.exit(1);
+            }
+            System.out.println("All checks passed");
+        }
+    }
+
+    void run() throws IOException, InterruptedException {
+        check("malformed request line", "GARBAGE\r\n\r\n", List.of(400));
+        check("valid request after a malformed one", analyze(true), List.of(200));
+        check("pipelined requests", get("/", true) + analyze(false) + get("/missing", false), List.of(200, 200, 404));
+
+        // A client that declares most of the body budget and sends nothing holds it, not the heap
+        try (Socket idle = new Socket("localhost", port)) {
+            idle.getOutputStream().write(("POST /analyze HTTP/1.1\r\nHost: localhost\r\nContent-Length: "
+                    + BODY_BUFFER_BYTES * 3 / 4 + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            Thread.sleep(200);
+            check("body over the in-flight budget", "POST /analyze HTTP/1.1\r\nHost: localhost\r\nContent-Length: "
+                    + BODY_BUFFER_BYTES / 2 + "\r\n\r\n", List.of(503));
+            check("small body within the budget", analyze(true), List.of(200));
+        }
+        // Closing the idle connection gives its share back
+        Thread.sleep(200);
+        check("budget released on close", "POST /analyze HTTP/1.1\r\nHost: localhost\r\nContent-Length: "
+                + BODY_BUFFER_BYTES / 2 + "\r\nConnection: close\r\n\r\n" + " ".repeat((int) BODY_BUFFER_BYTES / 2), List.of(200));
+    }
+
+    /** Sends {@code request} on a new connection and compares the statuses of every answer until it closes. */
+    private void check(String name, String request, List<Integer> expected) throws IOException {
+        List<Integer> statuses;
+        try {
+            statuses = exchange(request);
+        } catch (IOException e) {
+            statuses = List.of();
+            System.err.println(name + ": " + e);
+        }
+        boolean ok = statuses.equals(expected);
+        if (!ok) failures++;
+        System.out.printf("%-4s %-40s expected %s, got %s%n", ok ? "ok" : "FAIL", name, expected, statuses);
+    }
+
+    private List<Integer> exchange(String request) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            // Every request string ends with one asking to close, so the server ends the stream
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            in.transferTo(received);
+            List<Integer> statuses = new ArrayList<>();
+            Matcher m = STATUS.matcher(received.toString(StandardCharsets.ISO_8859_1));
+            while (m.find()) {
+                statuses.add(Integer.parseInt(m.group(1)));
+            }
+            return statuses;
+        }
+    }
+
+    private static String get(String path, boolean keepAlive) {
+        return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" + (keepAlive ? "" : "Connection: close\r\n") + "\r\n";
+    }
+
+    private static String analyze(boolean close) {
+        byte[] body = SOURCE.getBytes(StandardCharsets.UTF_8);
+        return "POST /analyze HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n"
+                + (close ? "Connection: close\r\n" : "") + "\r\n" + SOURCE;
+    }
+}
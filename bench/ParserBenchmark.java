@@ -0,0 +1,84 @@
+import com.github.javaparser.StaticJavaParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Compares {@code StaticJavaParser.parse} with the thread-confined parsers behind
+ * {@link Analyzer#parse}, single-threaded and with one task per core.
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp lib/javaparser-core-3.25.10.jar -d out src/*.java bench/ParserBenchmark.java
+ * java -cp out:lib/javaparser-core-3.25.10.jar ParserBenchmark [methods] [seconds]
+ * </pre>
+ */
+public class ParserBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int methods = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String source = syntheticSource(methods);
+
+        System.out.println("Source: " + methods + " methods, " + source.length() + " chars");
+        System.out.println("Threads: " + threads);
+
+        // StaticJavaParser is measured single-threaded only: its configuration is global
+        run("static   x1", source, 1, seconds, StaticJavaParser::parse);
+        run("confined x1", source, 1, seconds, Analyzer::parse);
+        run("confined x" + threads, source, threads, seconds, Analyzer::parse);
+    }
+
+    private static void run(String label, String source, int threads, int seconds,
+                            Consumer<String> parse) throws Exception {
+        // Warm-up so the JIT has compiled the parser before we measure
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (System.nanoTime() < warmupEnd) {
+            parse.accept(source);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Long>> counts = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            counts.add(pool.submit(() -> {
+                long n = 0;
+                while (System.nanoTime() < end) {
+                    parse.accept(source);
+                    n++;
+                }
+                return n;
+            }));
+        }
+
+        long total = 0;
+        for (Future<Long> count : counts) {
+            total += count.get();
+        }
+        pool.shutdown();
+
+        System.out.printf("%-14s %10.1f parses/s%n", label, (double) total / seconds);
+    }
+
+    static String syntheticSource(int methods) {
+        StringBuilder sb = new StringBuilder("public class Bench {\n");
+        for (int i = 0; i < methods; i++) {
+            sb.append("    // method ").append(i).append("\n");
+            sb.append("    static int m").append(i).append("(int n) {\n");
+            sb.append("        int sum = 0;\n");
+            sb.append("        for (int i = 0; i < n; i++) {\n");
+            sb.append("            for (int j = 1; j < n; j *= 2) {\n");
+            sb.append("                sum += i * j;\n");
+            sb.append("            }\n");
+            sb.append("        }\n");
+            sb.append("        return n == 0 ? sum : m").append(i).append("(n - 1);\n");
+            sb.append("    }\n");
+        }
+        return sb.append("}\n").toString();
+    }
+}
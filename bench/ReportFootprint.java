@@ -0,0 +1,143 @@
+import com.github.javaparser.ast.CompilationUnit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures the heap retained per analyzed method: the reports as {@link Analyzer} now returns
+ * them ({@link LoopList}, {@link CallSet} over shared keys, shared owner strings), the same
+ * reports in the previous layout ({@code ArrayList} of loops, {@code HashSet} of call-key
+ * strings, an owner string per method), and the parsed {@link CompilationUnit}s, which
+ * are no longer kept while the reports are extracted.
+ *
+ * Every {@code .java} file under the given roots (default {@code src}) is analyzed
+ * {@code --copies} times and all results are held at once; retained size is the difference
+ * in used heap after full collections.
+ *
+ * <pre>
+ * java -cp out:lib/javaparser-core-3.25.10.jar ReportFootprint [--copies 200] [root...]
+ * </pre>
+ */
+public class ReportFootprint {
+
+    /** A report in the layout MethodReport had before it was compacted. */
+    static class LegacyReport {
+        String name;
+        String owner;
+        String signature;
+        int parameterCount;
+        boolean varargs;
+        List<LoopGrowth> loops = new ArrayList<>();
+        int maxNestedLoopDepth;
+        boolean isRecursive;
+        List<String> recursionGroup;
+        Set<String> callsTo = new HashSet<>();
+
+        LegacyReport(MethodReport r) {
+            // Own copies, so both layouts are measured with their strings. The visitor used to
+            // build a fresh owner and call-key string at every method and call site
+            name = copy(r.name);
+            owner = copy(r.owner);
+            signature = copy(r.signature);
+            parameterCount = r.parameterCount;
+            varargs = r.varargs;
+            loops.addAll(r.loops);
+            maxNestedLoopDepth = r.maxNestedLoopDepth;
+            isRecursive = r.isRecursive;
+            recursionGroup = r.recursionGroup;
+            for (String call : r.callsTo) {
+                callsTo.add(copy(call));
+            }
+        }
+
+        /** A string with its own character array; {@code new String(s)} would share it. */
+        private static String copy(String s) {
+            return new String(s.toCharArray());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int copies = 200;
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--copies")) {
+                copies = Integer.parseInt(args[++i]);
+            } else {
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        if (roots.isEmpty()) roots.add(Paths.get("src"));
+
+        List<String> sources = new ArrayList<>();
+        for (Path file : RepositoryScan.findSources(roots)) {
+            sources.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+        System.out.println("Files: " + sources.size() + " x " + copies + " copies");
+
+        // Parser, caches and classes allocated on first use are not part of any one result
+        for (String source : sources) {
+            Analyzer.analyze(source, Budget.unlimited());
+        }
+
+        long base = usedHeap();
+        List<Collection<MethodReport>> compact = new ArrayList<>();
+        long methods = 0;
+        for (int c = 0; c < copies; c++) {
+            for (String source : sources) {
+                Collection<MethodReport> reports = Analyzer.analyze(source, Budget.unlimited());
+                compact.add(reports);
+                methods += reports.size();
+            }
+        }
+        long compactBytes = usedHeap() - base;
+        if (methods == 0) {
+            System.out.println("No methods found");
+            return;
+        }
+
+        base = usedHeap();
+        List<List<LegacyReport>> legacy = new ArrayList<>();
+        for (Collection<MethodReport> reports : compact) {
+            List<LegacyReport> copy = new ArrayList<>(reports.size());
+            for (MethodReport r : reports) {
+                copy.add(new LegacyReport(r));
+            }
+            legacy.add(copy);
+        }
+        long legacyBytes = usedHeap() - base;
+
+        base = usedHeap();
+        List<CompilationUnit> trees = new ArrayList<>();
+        for (int c = 0; c < Math.max(1, copies / 10); c++) {
+            for (String source : sources) {
+                trees.add(Analyzer.parse(source));
+            }
+        }
+        long treeBytes = (usedHeap() - base) * copies / Math.max(1, copies / 10);
+
+        System.out.println("Methods: " + methods);
+        System.out.printf("%-22s %10s%n", "", "bytes/method");
+        System.out.printf("%-22s %10.1f%n", "previous reports", (double) legacyBytes / methods);
+        System.out.printf("%-22s %10.1f%n", "compact reports", (double) compactBytes / methods);
+        System.out.printf("%-22s %10.1f%n", "parsed AST", (double) treeBytes / methods);
+
+        // Keep everything reachable until all measurements are taken
+        if (compact.size() + legacy.size() + trees.size() < 0) System.out.println();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
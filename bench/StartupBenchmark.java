@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures start-up in fresh JVMs, one child process per run, for each way of starting them.
+ *
+ * <ul>
+ *   <li>CLI: wall time of {@code Main} (the built-in example) and {@code Main --summary
+ *   <root>}, started plainly, with a class-data-sharing archive, and with the archive plus
+ *   {@code -XX:TieredStopAtLevel=1} (C1 only, which suits runs too short for C2 to pay off).
+ *   The archive is dumped once per command by an untimed run with
+ *   {@code -XX:ArchiveClassesAtExit}.</li>
+ *   <li>Server: time until {@code /ready} answers 200, the latency of the first
+ *   {@code /analyze} request after that, and the median of the next 20, without and with
+ *   {@code analyzer.warmupRounds}.</li>
+ * </ul>
+ *
+ * CDS only archives classes loaded from jars, so the children run from {@code mvn package}
+ * output by default; medians of {@code --runs} runs are printed.
+ *
+ * <pre>
+ * java -cp out:lib/javaparser-core-3.25.10.jar StartupBenchmark [--runs 5] [--root src] [--warmup-rounds 20]
+ * </pre>
+ */
+public class StartupBenchmark {
+
+    private static final String JAVA = ProcessHandle.current().info().command().orElse("java");
+
+    private final String classpath;
+    private final int runs;
+    private final Path archives;
+
+    StartupBenchmark(String classpath, int runs) throws IOException {
+        this.classpath = classpath;
+        this.runs = runs;
+        this.archives = Files.createTempDirectory("startup-cds");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String classpath = "target/code-explainer-1.0-SNAPSHOT.jar:lib/javaparser-core-3.25.10.jar";
+        int runs = 5;
+        String root = "src";
+        int warmupRounds = 20;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--cp" -> classpath = args[++i];
+                case "--runs" -> runs = Integer.parseInt(args[++i]);
+                case "--root" -> root = args[++i];
+                case "--warmup-rounds" -> warmupRounds = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        for (String entry : classpath.split(":")) {
+            if (!Files.exists(Path.of(entry))) {
+                System.err.println("Missing " + entry + " (run mvn package first, or pass --cp)");
+                return;
+            }
+        }
+
+        StartupBenchmark bench = new StartupBenchmark(classpath, runs);
+        System.out.printf("%-28s %-12s %12s%n", "CLI command", "mode", "wall ms");
+        bench.cli("example", List.of("Main"));
+        bench.cli("scan " + root, List.of("Main", "--summary", root));
+
+        System.out.println();
+        System.out.printf("%-28s %12s %14s %14s%n", "Server", "ready ms", "first req ms", "next 20 p50");
+        bench.server("no warm-up", List.of());
+        bench.server("warm-up " + warmupRounds + " rounds", List.of("-Danalyzer.warmupRounds=" + warmupRounds));
+    }
+
+    private void cli(String name, List<String> command) throws Exception {
+        Path archive = archives.resolve(name.replaceAll("\\W", "_") + ".jsa");
+        // Untimed: dumps the classes this command loads
+        time(jvm(List.of("-XX:ArchiveClassesAtExit=" + archive), command));
+
+        String[][] modes = {
+                {"default"},
+                {"cds", "-XX:SharedArchiveFile=" + archive},
+                {"cds+c1", "-XX:SharedArchiveFile=" + archive, "-XX:TieredStopAtLevel=1"},
+        };
+        for (String[] mode : modes) {
+            List<String> flags = Arrays.asList(mode).subList(1, mode.length);
+            long[] millis = new long[runs];
+            for (int r = 0; r < runs; r++) {
+                millis[r] = time(jvm(flags, command));
+            }
+            System.out.printf("%-28s %-12s %12d%n", name, mode[0], median(millis));
+        }
+    }
+
+    private void server(String name, List<String> flags) throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        long[] ready = new long[runs];
+        long[] first = new long[runs];
+        long[] next = new long[runs];
+        for (int r = 0; r < runs; r++) {
+            int port = freePort();
+            List<String> all = new ArrayList<>(flags);
+            all.add("-Danalyzer.port=" + port);
+            long start = System.nanoTime();
+            Process server = jvm(all, List.of("CodeAnalyzerServer")).start();
+            try {
+                URI base = URI.create("http://localhost:" + port);
+                while (status(client, base.resolve("/ready")) != 200) {
+                    if (!server.isAlive()) throw new IllegalStateException("Server exited with " + server.exitValue());
+                    Thread.sleep(10);
+                }
+                ready[r] = (System.nanoTime() - start) / 1_000_000;
+
+                // Fresh bodies, so no answer comes from the result cache
+                first[r] = analyze(client, base, r, 0);
+                long[] rest = new long[20];
+                for (int i = 0; i < rest.length; i++) {
+                    rest[i] = analyze(client, base, r, i + 1);
+                }
+                next[r] = median(rest);
+            } finally {
+                server.destroy();
+                server.waitFor();
+            }
+        }
+        System.out.printf("%-28s %12d %14.1f %14.1f%n", name, median(ready), median(first) / 1000.0, median(next) / 1000.0);
+    }
+
+    /** Microseconds to analyze a 100-method class unique to {@code run} and {@code request}. */
+    private static long analyze(HttpClient client, URI base, int run, int request) throws Exception {
+        byte[] body = (ParserBenchmark.syntheticSource(100) + "// " + run + "/" + request + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        HttpRequest post = HttpRequest.newBuilder(base.resolve("/analyze"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response = client.send(post, HttpResponse.BodyHandlers.ofByteArray());
+        long micros = (System.nanoTime() - start) / 1000;
+        if (response.statusCode() != 200) throw new IllegalStateException("/analyze answered " + response.statusCode());
+        return micros;
+    }
+
+    private static int status(HttpClient client, URI uri) throws InterruptedException {
+        try {
+            HttpRequest get = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(5)).build();
+            return client.send(get, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            // Not listening yet
+            return -1;
+        }
+    }
+
+    private ProcessBuilder jvm(List<String> flags, List<String> command) {
+        List<String> args = new ArrayList<>();
+        args.add(JAVA);
+        args.add("-Xshare:auto");
+        args.addAll(flags);
+        args.add("-cp");
+        args.add(classpath);
+        args.addAll(command);
+        return new ProcessBuilder(args)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+    }
+
+    /** Milliseconds from launch to exit; fails if the process does. */
+    private static long time(ProcessBuilder process) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        int exit = process.start().waitFor();
+        if (exit != 0) throw new IllegalStateException(process.command() + " exited with " + exit);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
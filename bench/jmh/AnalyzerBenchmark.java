@@ -0,0 +1,89 @@
+package jmh;
+
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of an analysis measured on its own, over the same inputs: parsing (the default
+ * {@code StaticJavaParser} and the trimmed per-thread parser), the visitor traversal, the
+ * recursion and cost passes in {@code getReports}, and rendering ({@code Complexity.time} and the JSON).
+ * Later stages start from the output of the earlier ones, prepared once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+public class AnalyzerBenchmark {
+
+    @Param({"small", "medium", "large", "src/ComplexityVisitor.java", "src/CodeAnalyzerServer.java"})
+    public String corpus;
+
+    private String source;
+    private CompilationUnit cu;
+    private VoidVisitorAdapter<Void> visited;
+    private Collection<?> reports;
+
+    @Setup
+    public void setUp() throws Throwable {
+        source = Corpus.load(corpus);
+        cu = Core.parse(source);
+        visited = Core.newVisitor();
+        visited.visit(cu, null);
+        reports = Core.getReports(visited);
+    }
+
+    @Benchmark
+    public CompilationUnit parseStatic() {
+        return StaticJavaParser.parse(source);
+    }
+
+    @Benchmark
+    public CompilationUnit parseConfined() throws Throwable {
+        return Core.parse(source);
+    }
+
+    @Benchmark
+    public Object visit() throws Throwable {
+        VoidVisitorAdapter<Void> visitor = Core.newVisitor();
+        visitor.visit(cu, null);
+        return visitor;
+    }
+
+    /** The recursion pass recomputes every flag from the collected calls, so it can be repeated. */
+    @Benchmark
+    public Collection<?> getReports() throws Throwable {
+        return Core.getReports(visited);
+    }
+
+    @Benchmark
+    public void estimateTime(Blackhole bh) throws Throwable {
+        for (Object report : reports) {
+            bh.consume(Core.estimateTime(report));
+        }
+    }
+
+    @Benchmark
+    public StringBuilder serialize() throws Throwable {
+        StringBuilder json = new StringBuilder();
+        Core.writeResults(json, reports);
+        return json;
+    }
+}
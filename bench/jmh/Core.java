@@ -0,0 +1,78 @@
+package jmh;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collection;
+
+/**
+ * Handles on the analyzer classes. They live in the default package, which a named package
+ * cannot import, and JMH refuses benchmarks in the default package, so the benchmarks reach
+ * them through method handles. The handles are static finals, which the JIT treats as
+ * constants, so calling them costs about as much as a direct call.
+ */
+final class Core {
+
+    private static final MethodHandle PARSE;
+    private static final MethodHandle NEW_VISITOR;
+    private static final MethodHandle GET_REPORTS;
+    private static final MethodHandle ESTIMATE_TIME;
+    private static final MethodHandle WRITE_RESULTS;
+
+    static {
+        try {
+            ClassLoader loader = Core.class.getClassLoader();
+            Class<?> analyzer = Class.forName("Analyzer", true, loader);
+            Class<?> visitor = Class.forName("ComplexityVisitor", true, loader);
+            Class<?> report = Class.forName("MethodReport", true, loader);
+            Class<?> json = Class.forName("ReportJson", true, loader);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PARSE = MethodHandles.privateLookupIn(analyzer, lookup)
+                    .findStatic(analyzer, "parse", MethodType.methodType(CompilationUnit.class, String.class));
+            NEW_VISITOR = lookup.findConstructor(visitor, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(VoidVisitorAdapter.class));
+            GET_REPORTS = lookup.findVirtual(visitor, "getReports", MethodType.methodType(Collection.class))
+                    .asType(MethodType.methodType(Collection.class, Object.class));
+            MethodHandles.Lookup jsonLookup = MethodHandles.privateLookupIn(json, lookup);
+            Class<?> complexity = Class.forName("Complexity", true, loader);
+            ESTIMATE_TIME = MethodHandles.privateLookupIn(complexity, lookup)
+                    .findStatic(complexity, "time", MethodType.methodType(String.class, report))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            WRITE_RESULTS = jsonLookup.findStatic(json, "writeResults",
+                    MethodType.methodType(void.class, Appendable.class, Collection.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Core() {
+    }
+
+    /** {@code Analyzer.parse}: the thread-confined, trimmed-down parser the server uses. */
+    static CompilationUnit parse(String source) throws Throwable {
+        return (CompilationUnit) PARSE.invokeExact(source);
+    }
+
+    /** A fresh {@code ComplexityVisitor}. */
+    @SuppressWarnings("unchecked")
+    static VoidVisitorAdapter<Void> newVisitor() throws Throwable {
+        return (VoidVisitorAdapter<Void>) (VoidVisitorAdapter<?>) NEW_VISITOR.invokeExact();
+    }
+
+    /** {@code ComplexityVisitor.getReports}, which runs the recursion pass. */
+    static Collection<?> getReports(Object visitor) throws Throwable {
+        return (Collection<?>) GET_REPORTS.invokeExact(visitor);
+    }
+
+    static String estimateTime(Object report) throws Throwable {
+        return (String) ESTIMATE_TIME.invokeExact(report);
+    }
+
+    static void writeResults(Appendable out, Collection<?> reports) throws Throwable {
+        WRITE_RESULTS.invokeExact(out, reports);
+    }
+}
@@ -0,0 +1,101 @@
+package jmh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmark inputs. {@code small}, {@code medium} and {@code large} are generated classes of
+ * 10, 100 and 1000 methods that mix the shapes the rules care about; any other name is read
+ * as a source file relative to the working directory, e.g. {@code src/ComplexityVisitor.java}.
+ */
+final class Corpus {
+
+    private Corpus() {
+    }
+
+    static String load(String name) {
+        switch (name) {
+            case "small":
+                return synthetic(10);
+            case "medium":
+                return synthetic(100);
+            case "large":
+                return synthetic(1000);
+            default:
+                try {
+                    return Files.readString(Path.of(name), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Corpus file not found (run from the repository root): " + name, e);
+                }
+        }
+    }
+
+    /** A class with {@code methods} methods cycling through loops, recursion and plain code. */
+    static String synthetic(int methods) {
+        StringBuilder sb = new StringBuilder("import java.util.*;\n\npublic class Synthetic {\n");
+        for (int i = 0; i < methods; i++) {
+            sb.append("\n    /** Method ").append(i).append(". */\n");
+            switch (i % 6) {
+                case 0 -> sb.append("""
+                            int m%d(int[] a) {
+                                int sum = 0;
+                                for (int x : a) {
+                                    sum += x;
+                                }
+                                return sum;
+                            }
+                        """.formatted(i));
+                case 1 -> sb.append("""
+                            long m%d(int n) {
+                                long sum = 0;
+                                for (int i = 0; i < n; i++) {
+                                    for (int j = 1; j < n; j *= 2) {
+                                        sum += (long) i * j;
+                                    }
+                                }
+                                return sum;
+                            }
+                        """.formatted(i));
+                case 2 -> sb.append("""
+                            int m%d(int n) {
+                                int steps = 0;
+                                while (n > 1) {
+                                    n /= 2;
+                                    steps++;
+                                }
+                                return steps;
+                            }
+                        """.formatted(i));
+                case 3 -> sb.append("""
+                            int m%d(int n) {
+                                return n <= 1 ? n : m%d(n - 1) + m%d(n - 2);
+                            }
+                        """.formatted(i, i, i));
+                case 4 -> sb.append("""
+                            boolean m%d(int n) {
+                                return n == 0 || odd%d(n - 1);
+                            }
+
+                            boolean odd%d(int n) {
+                                return n != 0 && m%d(n - 1);
+                            }
+                        """.formatted(i, i, i, i));
+                default -> sb.append("""
+                            String m%d(List<String> items) {
+                                StringBuilder sb = new StringBuilder();
+                                items.forEach(s -> sb.append(s.trim()));
+                                switch (items.size()) {
+                                    case 0 -> sb.append("none");
+                                    default -> sb.append(items.get(0));
+                                }
+                                return sb.toString();
+                            }
+                        """.formatted(i));
+            }
+        }
+        return sb.append("}\n").toString();
+    }
+}
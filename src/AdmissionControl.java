@@ -0,0 +1,147 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor handed to the HttpServer. At most {@code limit} exchanges may be running or
+ * waiting for a worker at once. Anything over that is run inline on the dispatcher thread
+ * marked as rejected, so {@link #filter()} can answer with a 503 without touching the body.
+ * Every context needs that filter unless its handler is cheap enough to run on the dispatcher.
+ *
+ * Work an admitted exchange fans out to other threads (the files of a batch or a job) takes
+ * slots from the same limit through {@link #tryAdmit()} or {@link #admit()}, so it cannot pile
+ * up behind the count.
+ */
+class AdmissionControl implements Executor {
+
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    /** Body of the 503 sent to requests turned away. */
+    static final String BUSY = "{\"success\": false, \"error\": \"Server busy, retry later\"}";
+
+    private final ExecutorService workers;
+    private final int limit;
+    private final AtomicInteger admitted = new AtomicInteger();
+    // admit() callers wait on this for release() to free a slot
+    private final Object freed = new Object();
+    private volatile int waiting;
+
+    AdmissionControl(ExecutorService workers, int limit) {
+        this.workers = workers;
+        this.limit = limit;
+    }
+
+    static AdmissionControl fromConfig() {
+        return new AdmissionControl(workersFromConfig(), ServerConfig.THREADS + ServerConfig.QUEUE_DEPTH);
+    }
+
+    /** The worker pool {@link ServerConfig#EXECUTOR} asks for. */
+    static ExecutorService workersFromConfig() {
+        return "virtual".equals(ServerConfig.EXECUTOR)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(ServerConfig.THREADS);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!tryAdmit()) {
+            REJECTED.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                REJECTED.remove();
+            }
+            return;
+        }
+
+        long queued = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                Metrics.QUEUE_WAIT.since(queued);
+                try {
+                    task.run();
+                } finally {
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /** Takes a slot if one is free; each one taken must be given back with {@link #release()}. */
+    boolean tryAdmit() {
+        if (admitted.incrementAndGet() > limit) {
+            admitted.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /** Takes a slot, waiting for one to be released if none is free. For background work. */
+    void admit() throws InterruptedException {
+        synchronized (freed) {
+            // Counted before trying, so a release() in between knows to notify
+            waiting++;
+            try {
+                while (!tryAdmit()) {
+                    freed.wait();
+                }
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    void release() {
+        admitted.decrementAndGet();
+        if (waiting > 0) {
+            synchronized (freed) {
+                freed.notify();
+            }
+        }
+    }
+
+    int inFlight() {
+        return admitted.get();
+    }
+
+    void shutdown() {
+        workers.shutdown();
+    }
+
+    static Filter filter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (REJECTED.get() == null) {
+                    chain.doFilter(exchange);
+                    return;
+                }
+
+                byte[] response = BUSY.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(ServerConfig.RETRY_AFTER_SECONDS));
+                exchange.sendResponseHeaders(503, response.length);
+
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.close();
+            }
+
+            @Override
+            public String description() {
+                return "Rejects requests that arrive while the admission queue is full";
+            }
+        };
+    }
+}
@@ -0,0 +1,145 @@
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.Provider;
+import com.github.javaparser.Providers;
+import com.github.javaparser.ast.CompilationUnit;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Parse-and-visit entry point shared by the server and the CLI.
+ *
+ * Unlike {@code StaticJavaParser}, which shares one global configuration, every thread gets
+ * its own {@link JavaParser}, so analyses can run in parallel without shared mutable state.
+ * The configuration drops everything the complexity rules never look at.
+ */
+class Analyzer {
+
+    /**
+     * Identifies the rules and output format that produced a result. Derived from the
+     * compiled classes involved (JavaParser included, for parser upgrades), so changing any
+     * of them invalidates cached results.
+     */
+    static final String VERSION = version(ComplexityVisitor.class, MethodReport.class,
+            LoopGrowth.class, Complexity.class, CallGraph.class, ReportJson.class, JavaParser.class);
+
+    private static final ThreadLocal<JavaParser> PARSER =
+            ThreadLocal.withInitial(() -> new JavaParser(configuration()));
+
+    private Analyzer() {
+    }
+
+    private static String version(Class<?>... classes) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (Class<?> c : classes) {
+                digestClass(md, c);
+                for (Class<?> nested : c.getDeclaredClasses()) {
+                    digestClass(md, nested);
+                }
+            }
+            return ResultCache.hex(md.digest(), 8);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot compute analyzer version", e);
+        }
+    }
+
+    private static void digestClass(MessageDigest md, Class<?> c) throws IOException {
+        String resource = c.getName().replace('.', '/') + ".class";
+        try (InputStream in = c.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) throw new IOException("Missing " + resource);
+            md.update(in.readAllBytes());
+        }
+    }
+
+    static ParserConfiguration configuration() {
+        return new ParserConfiguration()
+                .setLanguageLevel(ParserConfiguration.LanguageLevel.JAVA_17)
+                .setAttributeComments(false)
+                .setLexicalPreservationEnabled(false)
+                .setDetectOriginalLineSeparator(false)
+                .setSymbolResolver(null);
+    }
+
+    static CompilationUnit parse(String code) {
+        return parse(Providers.provider(code));
+    }
+
+    static CompilationUnit parse(Provider source) {
+        ParseResult<CompilationUnit> result = PARSER.get().parse(ParseStart.COMPILATION_UNIT, source);
+        if (result.isSuccessful() && result.getResult().isPresent()) {
+            return result.getResult().get();
+        }
+        throw new ParseProblemException(result.getProblems());
+    }
+
+    static Collection<MethodReport> analyze(String code, Budget budget) {
+        return analyze(new StringReader(code), budget);
+    }
+
+    /** Analyzes UTF-8 source, decoded as the parser reads it rather than into a String first. */
+    static Collection<MethodReport> analyze(byte[] utf8, Budget budget) {
+        return analyze(new InputStreamReader(new ByteArrayInputStream(utf8), StandardCharsets.UTF_8), budget);
+    }
+
+    /**
+     * Parses and analyzes {@code source} within {@code budget}. If the budget runs out, or the
+     * source nests too deeply for the stack, the methods completed so far are returned and
+     * {@link Budget#truncated()} is set; nothing is returned if parsing did not finish.
+     */
+    private static Collection<MethodReport> analyze(Reader source, Budget budget) {
+        long start = System.nanoTime();
+        CompilationUnit cu;
+        try {
+            cu = parse(Providers.provider(budget.reader(source)));
+        } catch (ParseProblemException e) {
+            // Source cut off at the deadline rarely parses; that is a timeout, not bad input
+            if (budget.truncated()) return List.of();
+            throw e;
+        } catch (StackOverflowError e) {
+            budget.exhaust("nesting too deep to parse");
+            return List.of();
+        }
+        Metrics.PARSE.since(start);
+        ComplexityVisitor visitor = visit(cu, budget);
+        // This frame holds the only reference; drop it so the tree can go before the recursion pass
+        cu = null;
+        return reports(visitor);
+    }
+
+    /**
+     * Visits an already parsed unit within {@code budget}, keeping what was completed if the
+     * budget runs out (see {@link #analyze(Reader, Budget)}). The visitor holds no AST nodes,
+     * so a caller that drops its own reference to {@code cu} lets the tree be collected before
+     * {@link #reports} runs.
+     */
+    static ComplexityVisitor visit(CompilationUnit cu, Budget budget) {
+        long start = System.nanoTime();
+        // Large files are split across cores; see ParallelAnalysis
+        ComplexityVisitor visitor = ParallelAnalysis.visit(cu, budget);
+        Metrics.VISIT.since(start);
+        return visitor;
+    }
+
+    /** Runs the recursion pass over a visited unit's call graph and returns its reports. */
+    static Collection<MethodReport> reports(ComplexityVisitor visitor) {
+        long start = System.nanoTime();
+        Collection<MethodReport> reports = visitor.getReports();
+        Metrics.RECURSION.since(start);
+        Metrics.METHODS.add(reports.size());
+        return reports;
+    }
+}
@@ -0,0 +1,336 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * {@code POST /analyze/batch}: many files in one request, either a zip archive
+ * ({@code Content-Type: application/zip}, every {@code .java} entry is analyzed) or NDJSON
+ * lines of {@code {"path": ..., "source": ...}}.
+ *
+ * Each file is analyzed as its own task on a work-stealing pool, and the response streams one
+ * NDJSON line per file in completion order, so a slow file never holds back the others. The
+ * response starts before the body is read, and lines are written while later files are still
+ * arriving.
+ *
+ * Every source is held until its task runs, so the decoded body, the bytes its zip entries
+ * expand to, each file and the number of files are all capped. Only a declared Content-Length
+ * over the cap can still get 413; a cap reached while reading, or a malformed body, cancels the
+ * remaining files and ends the stream with an error line.
+ */
+class BatchHandler implements HttpHandler {
+
+    private final ExecutorService pool;
+    private final AdmissionControl admission;
+
+    BatchHandler(ExecutorService pool, AdmissionControl admission) {
+        this.pool = pool;
+        this.admission = admission;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        InputStream in;
+        try {
+            // What can be checked before reading still gets a status of its own
+            if (RequestBody.contentLength(exchange) > ServerConfig.BATCH_MAX_BODY_BYTES) {
+                throw new RequestBody.TooLargeException(ServerConfig.BATCH_MAX_BODY_BYTES);
+            }
+            in = Compression.requestBody(exchange);
+        } catch (IOException e) {
+            byte[] response = ReportJson.error(e).getBytes(StandardCharsets.UTF_8);
+            int status = e instanceof RequestBody.TooLargeException ? 413
+                    : e instanceof Compression.UnsupportedEncodingException ? 415 : 400;
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=UTF-8");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(200, 0);
+
+        OutputStream os = exchange.getResponseBody();
+        Lines lines = new Lines(os);
+        try (in; os) {
+            try {
+                readTasks(in, type, ServerConfig.BATCH_MAX_BODY_BYTES, lines::submit);
+            } catch (IOException e) {
+                // The 200 is already sent, so the reason is the last line of the stream
+                lines.cancel();
+                lines.write(ReportJson.error(e));
+                return;
+            }
+            lines.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | UncheckedIOException e) {
+            // Client went away (or a task died unexpectedly): the remaining work stops below
+        } finally {
+            // Gives back the admission slots of tasks still running; nothing left after finish()
+            lines.cancel();
+        }
+    }
+
+    /**
+     * The response stream: each file's line is written as soon as its task completes. The
+     * batch's own admission slot covers one task at a time; each further task in flight takes
+     * a slot of its own, given back once its line is written. When none is free, the batch
+     * writes its own finished lines until one is, or until it has nothing else in flight.
+     */
+    private final class Lines {
+        private final CompletionService<String> results = new ExecutorCompletionService<>(pool);
+        private final List<Future<String>> pending = new ArrayList<>();
+        // Tasks holding a slot of their own
+        private final Set<Future<String>> holding = new HashSet<>();
+        private final OutputStream os;
+        private int written;
+
+        Lines(OutputStream os) {
+            this.os = os;
+        }
+
+        /** Starts {@code task}, then writes whatever has completed so far without waiting. */
+        void submit(Callable<String> task) {
+            try {
+                boolean slot = false;
+                while (written < pending.size() && !(slot = admission.tryAdmit())) {
+                    write(results.take());
+                }
+                Future<String> future = results.submit(task);
+                pending.add(future);
+                if (slot) holding.add(future);
+
+                Future<String> done;
+                while ((done = results.poll()) != null) {
+                    write(done);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /** Writes the remaining lines as their tasks complete. */
+        void finish() throws IOException, InterruptedException {
+            while (written < pending.size()) {
+                write(results.take());
+            }
+        }
+
+        private void write(Future<String> done) throws IOException {
+            if (holding.remove(done)) admission.release();
+            if (done.state() != Future.State.SUCCESS) {
+                // Tasks turn their own failures into lines; this is an Error or a cancellation
+                throw new IOException("Batch task failed",
+                        done.state() == Future.State.FAILED ? done.exceptionNow() : null);
+            }
+            written++;
+            write(done.resultNow());
+        }
+
+        void write(String line) throws IOException {
+            os.write(line.getBytes(StandardCharsets.UTF_8));
+            os.write('\n');
+            os.flush();
+        }
+
+        void cancel() {
+            for (Future<String> f : pending) {
+                f.cancel(true);
+            }
+            for (int i = holding.size(); i > 0; i--) {
+                admission.release();
+            }
+            holding.clear();
+        }
+    }
+
+    /**
+     * Splits a batch body ({@code type} is its Content-Type) into one task per file, each
+     * producing that file's NDJSON line, and hands them to {@code tasks} as they are read.
+     * Throws {@link RequestBody.TooLargeException} once more than {@code limit} bytes are read
+     * or unzipped, a file is larger than {@link ServerConfig#MAX_BODY_BYTES}, or there are more
+     * than {@link ServerConfig#BATCH_MAX_FILES} files.
+     */
+    static void readTasks(InputStream in, String type, long limit, Consumer<Callable<String>> tasks) throws IOException {
+        InputStream limited = RequestBody.limit(in, limit);
+        if (type != null && type.startsWith("application/zip")) {
+            readZip(limited, limit, tasks);
+        } else {
+            readNdjson(limited, tasks);
+        }
+    }
+
+    private static void readZip(InputStream in, long limit, Consumer<Callable<String>> tasks) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in, StandardCharsets.UTF_8);
+        ZipEntry entry;
+        int files = 0;
+        long expanded = 0;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory() || !entry.getName().endsWith(".java")) continue;
+            countFile(++files);
+            String path = entry.getName();
+            // Entry sizes in the archive can lie, so the bounds apply to what is inflated
+            long entryLimit = Math.min(ServerConfig.MAX_BODY_BYTES, limit - expanded);
+            byte[] bytes;
+            try {
+                bytes = RequestBody.read(zip, (int) Math.min(8192, entryLimit), entryLimit);
+            } catch (RequestBody.TooLargeException e) {
+                throw new RequestBody.TooLargeException(entryLimit == ServerConfig.MAX_BODY_BYTES
+                        ? path + " exceeds " + entryLimit + " bytes"
+                        : "Batch expands to more than " + limit + " bytes");
+            }
+            expanded += bytes.length;
+            String source = new String(bytes, StandardCharsets.UTF_8);
+            tasks.accept(() -> ReportJson.analyzeFile(path, source));
+        }
+    }
+
+    private static void readNdjson(InputStream in, Consumer<Callable<String>> tasks) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        int files = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) continue;
+            countFile(++files);
+            // The whole body is already bounded, so the line can be measured after it is read
+            if (ReportJson.utf8Length(line) > ServerConfig.MAX_BODY_BYTES) {
+                throw new RequestBody.TooLargeException("Line " + lineNumber + " exceeds " + ServerConfig.MAX_BODY_BYTES + " bytes");
+            }
+
+            String fallbackPath = "line " + lineNumber;
+            String json = line;
+            tasks.accept(() -> {
+                Map<String, String> fields;
+                try {
+                    fields = parseObject(json);
+                } catch (IllegalArgumentException e) {
+                    return ReportJson.fileError(fallbackPath, e);
+                }
+                String path = fields.getOrDefault("path", fallbackPath);
+                return ReportJson.analyzeFile(path, fields.getOrDefault("source", ""));
+            });
+        }
+    }
+
+    private static void countFile(int files) throws RequestBody.TooLargeException {
+        if (files > ServerConfig.BATCH_MAX_FILES) {
+            throw new RequestBody.TooLargeException("Batch has more than " + ServerConfig.BATCH_MAX_FILES + " files");
+        }
+    }
+
+    /**
+     * Reads the string-valued members of a flat JSON object. Members of other types are
+     * skipped, nested objects and arrays are rejected.
+     */
+    static Map<String, String> parseObject(String json) {
+        Map<String, String> fields = new HashMap<>();
+        int[] pos = {skipSpace(json, 0)};
+        expect(json, pos, '{');
+        if (peek(json, pos) == '}') return fields;
+
+        while (true) {
+            String name = readString(json, pos);
+            expect(json, pos, ':');
+            if (peek(json, pos) == '"') {
+                fields.put(name, readString(json, pos));
+            } else {
+                // number, true, false or null
+                int start = pos[0];
+                while (pos[0] < json.length() && ",} \t\r\n".indexOf(json.charAt(pos[0])) < 0) pos[0]++;
+                if (pos[0] == start) throw new IllegalArgumentException("Expected value at " + start);
+            }
+            if (peek(json, pos) == ',') {
+                pos[0]++;
+                continue;
+            }
+            expect(json, pos, '}');
+            return fields;
+        }
+    }
+
+    private static String readString(String json, int[] pos) {
+        expect(json, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        int i = pos[0];
+        while (i < json.length()) {
+            char c = json.charAt(i++);
+            if (c == '"') {
+                pos[0] = i;
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i >= json.length()) break;
+            char e = json.charAt(i++);
+            switch (e) {
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'u' -> {
+                    if (i + 4 > json.length()) throw new IllegalArgumentException("Bad \\u escape at " + i);
+                    sb.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                    i += 4;
+                }
+                default -> sb.append(e);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private static char peek(String json, int[] pos) {
+        pos[0] = skipSpace(json, pos[0]);
+        if (pos[0] >= json.length()) throw new IllegalArgumentException("Unexpected end of line");
+        return json.charAt(pos[0]);
+    }
+
+    private static void expect(String json, int[] pos, char c) {
+        if (peek(json, pos) != c) throw new IllegalArgumentException("Expected '" + c + "' at " + pos[0]);
+        pos[0]++;
+    }
+
+    private static int skipSpace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) i++;
+        return i;
+    }
+}
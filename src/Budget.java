@@ -0,0 +1,151 @@
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits on one analysis: a wall-clock deadline and a number of AST nodes the visitor may
+ * walk. Neither the parser nor the visitor can be interrupted from outside, so they check it
+ * themselves: the visitor at every statement and compound expression via {@link #tick}, which
+ * throws {@link Exhausted} once the budget runs out, and the parser whenever it pulls more
+ * source through {@link #reader}, which then reports end of input (the lexer swallows
+ * exceptions from its reader). Callers keep whatever was produced up to then and report it
+ * as truncated.
+ *
+ * Not thread-safe: one budget belongs to one analysis on one thread. An analysis split across
+ * threads gives each task a {@link #fork}, which draws from the same limits.
+ */
+class Budget {
+
+    /** Thrown to unwind the visitor once the budget is used up. */
+    static class Exhausted extends RuntimeException {
+        Exhausted(String reason) {
+            // Thrown from deep recursion; a stack trace would be expensive and useless
+            super(reason, null, false, false);
+        }
+    }
+
+    // How many ticks between clock reads; nanoTime is cheap but not free
+    private static final int CLOCK_MASK = 0xFF;
+
+    // Nodes a fork claims from its parent at a time, so forks rarely touch the shared counter
+    private static final long FORK_BLOCK = 1024;
+
+    private final long deadline;
+    private final long timeoutMillis;
+    private final long maxNodes;
+    private long nodes;
+    private volatile String truncation;
+
+    // Set on forks: the budget they draw from, and how many nodes they have claimed so far
+    private final Budget parent;
+    private long claimed;
+    // Nodes handed out to forks, counted on the budget they were forked from
+    private final AtomicLong forked = new AtomicLong();
+
+    Budget(long timeoutMillis, long maxNodes) {
+        this.timeoutMillis = timeoutMillis;
+        this.deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        this.maxNodes = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+        this.parent = null;
+    }
+
+    private Budget(Budget parent) {
+        this.timeoutMillis = parent.timeoutMillis;
+        this.deadline = parent.deadline;
+        this.maxNodes = parent.maxNodes;
+        this.parent = parent;
+    }
+
+    static Budget unlimited() {
+        return new Budget(0, 0);
+    }
+
+    static Budget fromConfig() {
+        return new Budget(ServerConfig.ANALYSIS_TIMEOUT_MILLIS, ServerConfig.ANALYSIS_MAX_NODES);
+    }
+
+    /**
+     * A budget for one of several tasks sharing this analysis, each on its own thread. Forks
+     * share this budget's deadline and node limit, and stop soon after any of them runs out.
+     * This budget must not be ticked while its forks are in use.
+     */
+    Budget fork() {
+        forked.accumulateAndGet(nodes, Math::max);
+        return new Budget(this);
+    }
+
+    /** Counts one node, throwing {@link Exhausted} if that goes over a limit. */
+    void tick() {
+        if (++nodes > (parent == null ? maxNodes : claimed)) {
+            if (parent == null || !claim()) throw exhaust("node budget of " + maxNodes + " exceeded");
+        }
+        if ((nodes & CLOCK_MASK) == 0) checkDeadline();
+    }
+
+    void checkDeadline() {
+        if (expired()) throw exhaust(deadlineReason());
+        // A sibling fork ran out; the analysis is over for all of them
+        if (parent != null && parent.truncation != null) throw new Exhausted(parent.truncation);
+    }
+
+    /** Claims another block of nodes from the parent; false once it has none left. */
+    private boolean claim() {
+        long start = parent.forked.getAndAdd(FORK_BLOCK);
+        if (start >= maxNodes) return false;
+        claimed += Math.min(FORK_BLOCK, maxNodes - start);
+        return true;
+    }
+
+    private boolean expired() {
+        return timeoutMillis > 0 && System.nanoTime() - deadline > 0;
+    }
+
+    private String deadlineReason() {
+        return "time budget of " + timeoutMillis + " ms exceeded";
+    }
+
+    /** Records that the result is incomplete, keeping the first reason given. */
+    Exhausted exhaust(String reason) {
+        if (parent != null) {
+            truncation = reason;
+            return parent.exhaust(reason);
+        }
+        synchronized (this) {
+            if (truncation == null) truncation = reason;
+            return new Exhausted(truncation);
+        }
+    }
+
+    boolean truncated() {
+        return truncation != null;
+    }
+
+    /** Why the analysis stopped early, or {@code null} if it ran to completion. */
+    String truncation() {
+        return truncation;
+    }
+
+    /** {@code source}, cut short with end of input once the deadline has passed. */
+    Reader reader(Reader source) {
+        if (timeoutMillis <= 0) return source;
+        return new FilterReader(source) {
+            @Override
+            public int read() throws IOException {
+                return stop() ? -1 : super.read();
+            }
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return stop() ? -1 : super.read(buffer, offset, length);
+            }
+
+            private boolean stop() {
+                if (!expired()) return false;
+                exhaust(deadlineReason());
+                return true;
+            }
+        };
+    }
+}
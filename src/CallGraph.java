@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Immutable call graph over interned integer method ids, stored in compressed sparse-row
+ * form: the callees of method {@code m} are {@code targets[offsets[m] .. offsets[m + 1])}.
+ * Each call edge carries a weight, {@code weights[i]} for {@code targets[i]}: the {@link Complexity} cost of
+ * the loops the call is made in.
+ */
+class CallGraph {
+
+    final String[] names;
+    final int[] offsets;
+    final int[] targets;
+    final int[] weights;
+    private final Map<String, Integer> ids;
+
+    private CallGraph(Map<String, Integer> ids, String[] names, int[] offsets, int[] targets, int[] weights) {
+        this.ids = ids;
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /** Graph of {@code methods} with calls resolved by {@code resolver}; ids follow iteration order. */
+    static CallGraph of(Collection<MethodReport> methods, CallResolver resolver) {
+        Builder builder = new Builder();
+        for (MethodReport m : methods) {
+            builder.node(m.id());
+        }
+        for (MethodReport m : methods) {
+            int from = builder.node(m.id());
+            m.callsTo.forEach((call, context) -> {
+                for (MethodReport target : resolver.resolve(m, call)) {
+                    builder.edge(from, builder.node(target.id()), context);
+                }
+            });
+        }
+        return builder.build();
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /** Id of the method called {@code name}, or -1. */
+    int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    int calleeCount(int m) {
+        return offsets[m + 1] - offsets[m];
+    }
+
+    int callee(int m, int i) {
+        return targets[offsets[m] + i];
+    }
+
+    /** Weight of the edge to {@link #callee callee(m, i)}. */
+    int weight(int m, int i) {
+        return weights[offsets[m] + i];
+    }
+
+    /**
+     * Groups of methods that call each other in a cycle: every strongly connected component
+     * with more than one method, plus single methods that call themselves.
+     */
+    List<int[]> recursiveGroups() {
+        List<int[]> groups = new ArrayList<>();
+        forEachComponent(group -> {
+            if (group.length > 1 || callsItself(group[0])) {
+                groups.add(group);
+            }
+        });
+        return groups;
+    }
+
+    /**
+     * Passes every strongly connected component to {@code action}, each one after all the
+     * components it calls into, so callees always come first. Linear in the size of the graph
+     * (iterative Tarjan, so deep call chains cannot overflow the stack).
+     */
+    void forEachComponent(Consumer<int[]> action) {
+        int n = size();
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] edge = new int[n];
+        int[] stack = new int[n];
+        int[] callStack = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+
+        int counter = 0;
+        int top = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) continue;
+
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = low[root] = counter++;
+            edge[root] = offsets[root];
+            stack[top++] = root;
+            onStack[root] = true;
+
+            while (depth > 0) {
+                int v = callStack[depth - 1];
+                if (edge[v] < offsets[v + 1]) {
+                    int w = targets[edge[v]++];
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        edge[w] = offsets[w];
+                        stack[top++] = w;
+                        onStack[w] = true;
+                        callStack[depth++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+
+                depth--;
+                if (depth > 0) {
+                    int parent = callStack[depth - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+                if (low[v] != index[v]) continue;
+
+                int start = top;
+                do {
+                    onStack[stack[--start]] = false;
+                } while (stack[start] != v);
+                int[] group = Arrays.copyOfRange(stack, start, top);
+                top = start;
+                action.accept(group);
+            }
+        }
+    }
+
+    private boolean callsItself(int v) {
+        for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+            if (targets[i] == v) return true;
+        }
+        return false;
+    }
+
+    static class Builder {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private int[] edges = new int[64];
+        private int edgeCount = 0;
+
+        /** Interns {@code name} into the symbol table, returning its id. */
+        int node(String name) {
+            Integer id = ids.get(name);
+            if (id != null) return id;
+            ids.put(name, names.size());
+            names.add(name);
+            return names.size() - 1;
+        }
+
+        /** Adds a call edge; of repeated edges between the same two methods the heaviest is kept. */
+        void edge(int from, int to, int weight) {
+            if (3 * edgeCount + 3 > edges.length) {
+                edges = Arrays.copyOf(edges, edges.length * 2);
+            }
+            edges[3 * edgeCount] = from;
+            edges[3 * edgeCount + 1] = to;
+            edges[3 * edgeCount + 2] = weight;
+            edgeCount++;
+        }
+
+        CallGraph build() {
+            int n = names.size();
+            int[] offsets = new int[n + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                offsets[edges[3 * e] + 1]++;
+            }
+            for (int i = 0; i < n; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+
+            // Target in the high half, weight in the low, so sorting a row orders it by target
+            // and, among duplicates, puts the heaviest last. Weights are never negative
+            long[] row = new long[edgeCount];
+            int[] fill = Arrays.copyOf(offsets, n);
+            for (int e = 0; e < edgeCount; e++) {
+                row[fill[edges[3 * e]]++] = (long) edges[3 * e + 1] << 32 | edges[3 * e + 2];
+            }
+
+            // Sort and de-duplicate each row, keeping the last (heaviest) of each target
+            int[] targets = new int[edgeCount];
+            int[] weights = new int[edgeCount];
+            int write = 0;
+            for (int v = 0; v < n; v++) {
+                int from = offsets[v];
+                int to = offsets[v + 1];
+                Arrays.sort(row, from, to);
+                offsets[v] = write;
+                for (int i = from; i < to; i++) {
+                    if (i + 1 < to && row[i + 1] >>> 32 == row[i] >>> 32) continue;
+                    targets[write] = (int) (row[i] >>> 32);
+                    weights[write++] = (int) row[i];
+                }
+            }
+            offsets[n] = write;
+
+            return new CallGraph(ids, names.toArray(new String[0]), offsets,
+                    Arrays.copyOf(targets, write), Arrays.copyOf(weights, write));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves call keys (see {@link ComplexityVisitor#callKey}) to the methods they may invoke,
+ * without symbol resolution: candidates must match the name and accept the argument count.
+ *
+ * A call without a receiver prefers the innermost enclosing type that declares a match, and
+ * falls back to every match (it may be inherited or statically imported). A call on a type
+ * name only matches methods of types with that simple name, so {@code Math.max} never links to
+ * a project method called {@code max}. Any other receiver may be any match.
+ */
+class CallResolver {
+
+    private final Map<String, List<MethodReport>> byName = new HashMap<>();
+
+    void add(MethodReport method) {
+        byName.computeIfAbsent(method.name, k -> new ArrayList<>()).add(method);
+    }
+
+    void remove(MethodReport method) {
+        List<MethodReport> named = byName.get(method.name);
+        if (named == null) return;
+        named.remove(method);
+        if (named.isEmpty()) byName.remove(method.name);
+    }
+
+    List<MethodReport> resolve(MethodReport caller, String call) {
+        int dot = call.indexOf('.');
+        int slash = call.lastIndexOf('/');
+        List<MethodReport> named = byName.get(call.substring(dot + 1, slash));
+        if (named == null) return Collections.emptyList();
+
+        int arguments = Integer.parseInt(call, slash + 1, call.length(), 10);
+        List<MethodReport> candidates = new ArrayList<>(named.size());
+        for (MethodReport m : named) {
+            if (m.accepts(arguments)) candidates.add(m);
+        }
+
+        if (dot < 0) {
+            for (String owner = caller.owner; owner != null; owner = enclosing(owner)) {
+                List<MethodReport> local = new ArrayList<>();
+                for (MethodReport m : candidates) {
+                    if (m.owner.equals(owner)) local.add(m);
+                }
+                if (!local.isEmpty()) return local;
+            }
+            return candidates;
+        }
+
+        String receiver = call.substring(0, dot);
+        if (receiver.equals("*")) return candidates;
+
+        List<MethodReport> typed = new ArrayList<>();
+        for (MethodReport m : candidates) {
+            if (m.owner.equals(receiver) || m.owner.endsWith("." + receiver)) typed.add(m);
+        }
+        return typed;
+    }
+
+    private static String enclosing(String owner) {
+        int dot = owner.lastIndexOf('.');
+        return dot < 0 ? null : owner.substring(0, dot);
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The call keys of one method (see {@link ComplexityVisitor#callKey}), stored as ids into a
+ * {@link Keys} table shared by every method of the same analysis. The same keys
+ * ({@code "size/0"}, {@code "*.add/1"}, ...) recur across most methods of a file, so each
+ * is kept once and a method costs four bytes per distinct call instead of a hash set entry.
+ * Iterates in the order the keys were first seen in the file.
+ *
+ * While the method is visited, each call made inside a loop also records that loop (see
+ * {@link #add(String, int)}). {@link #resolveContexts} then turns those into one context cost
+ * per key, the costliest loop path any call with that key sits in, and drops the sites.
+ */
+class CallSet extends AbstractSet<String> {
+
+    /** Call keys of one analysis, numbered in the order they were first seen. */
+    static class Keys {
+        private String[] keys = new String[16];
+        private int size;
+        // Only needed while methods are still being visited; see compact()
+        private Map<String, Integer> ids = new HashMap<>();
+
+        int intern(String key) {
+            if (ids == null) {
+                ids = new HashMap<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    ids.put(keys[i], i);
+                }
+            }
+            Integer id = ids.get(key);
+            if (id != null) return id;
+            if (size == keys.length) keys = Arrays.copyOf(keys, Math.max(16, size * 2));
+            keys[size] = key;
+            ids.put(key, size);
+            return size++;
+        }
+
+        String key(int id) {
+            return keys[id];
+        }
+
+        /** Releases the lookup map and spare capacity; later {@link #intern} calls rebuild the map. */
+        void compact() {
+            ids = null;
+            if (keys.length != size) keys = Arrays.copyOf(keys, size);
+        }
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Keys keys;
+    // Sorted, so lookups are binary searches and iteration follows first appearance
+    private int[] ids = EMPTY;
+    private int size;
+    // (id, loop) pairs of calls made inside loops, until resolveContexts
+    private int[] sites = EMPTY;
+    private int siteCount;
+    // Context cost of each id, aligned with ids; null until resolved, or if no call is in a loop
+    private int[] contexts;
+
+    CallSet() {
+        this(new Keys());
+    }
+
+    CallSet(Keys keys) {
+        this.keys = keys;
+    }
+
+    @Override
+    public boolean add(String key) {
+        return add(key, -1);
+    }
+
+    /** Adds a call made inside loop {@code loop} of the method's {@link LoopList} (-1 for none). */
+    boolean add(String key, int loop) {
+        if (contexts != null) throw new IllegalStateException("contexts already resolved");
+        int id = keys.intern(key);
+        if (loop >= 0) {
+            if (2 * siteCount + 2 > sites.length) sites = Arrays.copyOf(sites, Math.max(8, sites.length * 2));
+            sites[2 * siteCount] = id;
+            sites[2 * siteCount + 1] = loop;
+            siteCount++;
+        }
+
+        int at = Arrays.binarySearch(ids, 0, size, id);
+        if (at >= 0) return false;
+
+        int insert = -at - 1;
+        if (size == ids.length) ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+        System.arraycopy(ids, insert, ids, insert + 1, size - insert);
+        ids[insert] = id;
+        size++;
+        return true;
+    }
+
+    /**
+     * Adds the calls of {@code other}, whose loop indexes are shifted by {@code loopOffset}: the
+     * loops of the other method were appended after this one's. Both must be unresolved.
+     */
+    void addAll(CallSet other, int loopOffset) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.keys.key(other.ids[i]), -1);
+        }
+        for (int s = 0; s < other.siteCount; s++) {
+            add(other.keys.key(other.sites[2 * s]), other.sites[2 * s + 1] + loopOffset);
+        }
+    }
+
+    /**
+     * Settles the context cost of every key: the largest {@code loopCost} of the loops its
+     * calls were made in, or {@link Complexity#ONE} for calls made outside any loop.
+     */
+    void resolveContexts(IntUnaryOperator loopCost) {
+        if (siteCount > 0) {
+            contexts = new int[size];
+            for (int s = 0; s < siteCount; s++) {
+                int at = Arrays.binarySearch(ids, 0, size, sites[2 * s]);
+                contexts[at] = Math.max(contexts[at], loopCost.applyAsInt(sites[2 * s + 1]));
+            }
+        }
+        sites = EMPTY;
+        siteCount = 0;
+    }
+
+    /** Passes each key with its context cost, see {@link #resolveContexts}. */
+    void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(keys.key(ids[i]), contexts == null ? Complexity.ONE : contexts[i]);
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        for (int i = 0; i < size; i++) {
+            if (keys.key(ids[i]).equals(o)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public String next() {
+                if (next >= size) throw new NoSuchElementException();
+                return keys.key(ids[next++]);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Drops spare capacity, here and in the shared keys, once the method has been fully visited. */
+    void compact() {
+        if (ids.length != size) ids = size == 0 ? EMPTY : Arrays.copyOf(ids, size);
+        if (sites.length != 2 * siteCount) sites = siteCount == 0 ? EMPTY : Arrays.copyOf(sites, 2 * siteCount);
+        keys.compact();
+    }
+}
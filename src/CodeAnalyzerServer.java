@@ -1,5 +1,4 @@
-import com.github.javaparser.StaticJavaParser;
-import com.github.javaparser.ast.CompilationUnit;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
@@ -9,139 +8,360 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
 
 public class CodeAnalyzerServer {
 
     public static void main(String[] args) throws IOException {
-        int port = 8080;
-        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
-        
-        server.createContext("/", new StaticFileHandler());
-        server.createContext("/analyze", new AnalyzeHandler());
-        
-        server.setExecutor(null);
-        server.start();
+        int port = ServerConfig.PORT;
+        boolean nio = "nio".equals(ServerConfig.FRONT_END);
+        if (nio) {
+            // Serves / and /analyze only
+            NioServer.start(port);
+        } else {
+            start(port);
+        }
         
         System.out.println("========================================");
         System.out.println("  Code Analyzer Server Started!");
         System.out.println("========================================");
         System.out.println("Open your browser and navigate to:");
         System.out.println("  http://localhost:" + port);
+        if (nio) {
+            System.out.println("Front end: nio, selector loops: " + ServerConfig.SELECTORS);
+        }
+        System.out.println("Executor: " + ServerConfig.EXECUTOR + ", threads: " + ServerConfig.THREADS
+                + ", queue depth: " + ServerConfig.QUEUE_DEPTH);
+        if (ServerConfig.DISK_CACHE_DIR != null) {
+            System.out.println("Disk cache: " + ServerConfig.DISK_CACHE_DIR);
+        }
+        if (ServerConfig.WARMUP_ROUNDS > 0 && !nio) {
+            System.out.println("Warming up: " + ServerConfig.WARMUP_ROUNDS + " rounds, /ready answers 503 until done");
+        }
         System.out.println("========================================");
     }
 
+    /**
+     * Creates and starts the server on {@code port} (0 for any free port, see
+     * {@link HttpServer#getAddress()}) with every context and the configured executor.
+     */
+    static HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        DiskCache diskCache = openDiskCache();
+
+        AdmissionControl admission = AdmissionControl.fromConfig();
+
+        server.createContext("/", new StaticFileHandler()).getFilters().add(AdmissionControl.filter());
+        HttpContext analyze = server.createContext("/analyze", new AnalyzeHandler(diskCache));
+        analyze.getFilters().add(Metrics.filter("/analyze"));
+        analyze.getFilters().add(AdmissionControl.filter());
+        HttpContext batch = server.createContext("/analyze/batch",
+                new BatchHandler(new ForkJoinPool(ServerConfig.THREADS), admission));
+        batch.getFilters().add(Metrics.filter("/analyze/batch"));
+        batch.getFilters().add(AdmissionControl.filter());
+        HttpContext jobs = server.createContext("/jobs", new JobsHandler(JobScheduler.fromConfig(admission)));
+        jobs.getFilters().add(Metrics.filter("/jobs"));
+        jobs.getFilters().add(AdmissionControl.filter());
+
+        // Rendered from counters in memory, so it is left to run inline when the server is
+        // over its limit; scrapes keep working while it sheds load
+        server.createContext("/metrics", Metrics.handler(admission));
+        Warmup warmup = Warmup.fromConfig();
+        server.createContext("/ready", warmup.handler()).getFilters().add(AdmissionControl.filter());
+        
+        server.setExecutor(admission);
+        server.start();
+        // Listening already, so probes see 503 rather than a refused connection while it runs
+        warmup.start();
+        return server;
+    }
+
+    /** The configured persistent result cache, its index loading in the background; null if none. */
+    static DiskCache openDiskCache() throws IOException {
+        if (ServerConfig.DISK_CACHE_DIR == null) return null;
+        DiskCache diskCache = new DiskCache(Paths.get(ServerConfig.DISK_CACHE_DIR), ServerConfig.DISK_CACHE_BYTES);
+        // Build the index in the background so startup is not held up by a large segment
+        Thread.ofPlatform().daemon().name("disk-cache-load").start(diskCache::loadQuietly);
+        // Trims the mapping's zero tail and releases the segment's lock
+        Runtime.getRuntime().addShutdownHook(
+                Thread.ofPlatform().name("disk-cache-close").unstarted(diskCache::closeQuietly));
+        return diskCache;
+    }
+
+    /**
+     * Serves the single-page UI at {@code /} and {@code /index.html}. The page is encoded and
+     * gzipped once; requests only pick a variant and write it.
+     */
     static class StaticFileHandler implements HttpHandler {
+        // Also served by NioServer
+        final byte[] page;
+        final byte[] gzippedPage;
+        final String etag;
+        final String gzippedEtag;
+        private final byte[] notFound = "Not Found".getBytes(StandardCharsets.UTF_8);
+
+        StaticFileHandler() {
+            page = getIndexHTML().getBytes(StandardCharsets.UTF_8);
+            gzippedPage = Compression.gzip(page, Deflater.BEST_COMPRESSION);
+            String hash = ResultCache.hex(sha256(page), 8);
+            etag = "\"" + hash + "\"";
+            // Each encoding is a different representation, so it needs its own validator
+            gzippedEtag = Compression.gzipEtag(etag);
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String html = getIndexHTML();
-            byte[] response = html.getBytes(StandardCharsets.UTF_8);
-            
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            boolean head = "HEAD".equals(method);
+
+            if (!"GET".equals(method) && !head) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            if (!path.equals("/") && !path.equals("/index.html")) {
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                send(exchange, 404, notFound, head);
+                return;
+            }
+
+            boolean gzip = Compression.acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            String tag = gzip ? gzippedEtag : etag;
+            exchange.getResponseHeaders().set("ETag", tag);
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            if (ResultCache.matches(exchange.getRequestHeaders().getFirst("If-None-Match"), tag)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
             exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-            exchange.sendResponseHeaders(200, response.length);
-            
-            OutputStream os = exchange.getResponseBody();
-            os.write(response);
-            os.close();
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                send(exchange, 200, gzippedPage, head);
+            } else {
+                send(exchange, 200, page, head);
+            }
+        }
+
+        private static void send(HttpExchange exchange, int status, byte[] body, boolean head) throws IOException {
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+
+        private static byte[] sha256(byte[] data) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(data);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
         }
     }
 
     static class AnalyzeHandler implements HttpHandler {
+        private final ResultCache cache = ServerConfig.CACHE_BYTES > 0
+                ? new ResultCache(ServerConfig.CACHE_BYTES)
+                : null;
+        private final DiskCache diskCache;
+
+        AnalyzeHandler(DiskCache diskCache) {
+            this.diskCache = diskCache;
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if ("POST".equals(exchange.getRequestMethod())) {
-                InputStreamReader isr = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8);
-                BufferedReader br = new BufferedReader(isr);
-                StringBuilder code = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    code.append(line).append("\n");
+                // The deadline covers the whole request, body upload included
+                Budget budget = Budget.fromConfig();
+                byte[] body;
+                long start = System.nanoTime();
+                try {
+                    body = RequestBody.read(exchange, ServerConfig.MAX_BODY_BYTES);
+                    Metrics.BODY_READ.since(start);
+                } catch (RequestBody.TooLargeException e) {
+                    sendError(exchange, 413, e);
+                    return;
+                } catch (Compression.UnsupportedEncodingException e) {
+                    sendError(exchange, 415, e);
+                    return;
+                } catch (ZipException | EOFException e) {
+                    sendError(exchange, 400, e);
+                    return;
                 }
-                
-                String result = analyzeCode(code.toString());
-                byte[] response = result.getBytes(StandardCharsets.UTF_8);
-                
-                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                String key = ResultCache.key(body);
+                String etag = "\"" + key + "\"";
+
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
                 exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-                exchange.sendResponseHeaders(200, response.length);
-                
-                OutputStream os = exchange.getResponseBody();
-                os.write(response);
-                os.close();
+
+                // Results depend only on the body and analyzer version, so a matching
+                // ETag is valid even if this server never computed it
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                boolean gzipMatch = ResultCache.lists(ifNoneMatch, Compression.gzipEtag(etag));
+                if (gzipMatch || ResultCache.lists(ifNoneMatch, etag)) {
+                    if (gzipMatch) exchange.getResponseHeaders().set("ETag", Compression.gzipEtag(etag));
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+
+                byte[] response = cached(key);
+
+                boolean gzip = ServerConfig.COMPRESSION_LEVEL > 0
+                        && Compression.acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                if (response != null) {
+                    // Responses large enough to be sent gzipped are cached gzipped
+                    if (Compression.isGzip(response) && !gzip) {
+                        response = Compression.gunzip(response);
+                    } else if (!Compression.isGzip(response) && gzip && response.length > ServerConfig.COMPRESSION_MIN_BYTES) {
+                        response = Compression.gzip(response, ServerConfig.COMPRESSION_LEVEL);
+                    }
+                    if (Compression.isGzip(response)) {
+                        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                        exchange.getResponseHeaders().set("ETag", Compression.gzipEtag(etag));
+                    }
+                    exchange.sendResponseHeaders(200, response.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(response);
+                    }
+                    return;
+                }
+
+                Collection<MethodReport> reports = null;
+                Exception failure = null;
+                try {
+                    reports = Analyzer.analyze(body, budget);
+                } catch (Exception e) {
+                    Metrics.ANALYSIS_FAILURES.increment();
+                    failure = e;
+                }
+                if (budget.truncated()) {
+                    // Partial results depend on timing, so they must not be revalidated or cached
+                    exchange.getResponseHeaders().remove("ETag");
+                    exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                }
+
+                // Cache miss: stream the results as they are written (chunked, and gzipped once
+                // past the size threshold if the client accepts it), keeping an uncompressed
+                // copy for the caches unless the response turns out too large
+                OutputStream os;
+                if (gzip) {
+                    os = new Compression.ResponseStream(exchange, 200,
+                            ServerConfig.COMPRESSION_MIN_BYTES, ServerConfig.COMPRESSION_LEVEL);
+                } else {
+                    exchange.sendResponseHeaders(200, 0);
+                    os = exchange.getResponseBody();
+                }
+                CapturingOutputStream capture = new CapturingOutputStream(os, ServerConfig.CACHE_MAX_ENTRY_BYTES);
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(capture, StandardCharsets.UTF_8))) {
+                    if (failure != null) {
+                        out.append(ReportJson.error(failure));
+                    } else {
+                        ReportJson.writeAnalysis(out, reports, budget);
+                    }
+                }
+
+                response = capture.captured();
+                if (response != null && !budget.truncated()) store(key, response);
             }
         }
-    }
 
-    private static String analyzeCode(String code) {
-        try {
-            CompilationUnit cu = StaticJavaParser.parse(code);
-            ComplexityVisitor visitor = new ComplexityVisitor();
-            visitor.visit(cu, null);
-            
-            StringBuilder json = new StringBuilder();
-            json.append("{\"success\": true, \"results\": [");
-            
-            boolean first = true;
-            for (MethodReport r : visitor.getReports()) {
-                if (!first) json.append(",");
-                first = false;
-                
-                json.append("{");
-                json.append("\"method\": \"").append(escapeJson(r.name)).append("\",");
-                json.append("\"timeComplexity\": \"").append(estimateTime(r)).append("\",");
-                json.append("\"spaceComplexity\": \"").append(r.isRecursive ? "O(n)" : "O(1)").append("\",");
-                json.append("\"isRecursive\": ").append(r.isRecursive).append(",");
-                json.append("\"nestedDepth\": ").append(r.maxNestedLoopDepth).append(",");
-                json.append("\"loops\": \"").append(r.loops.toString()).append("\"");
-                json.append("}");
+        /**
+         * The stored response for {@code key} from the memory or disk cache, or null; counts the
+         * lookup. It may be gzipped, see {@link #store}.
+         */
+        byte[] cached(String key) {
+            byte[] response = cache != null ? cache.get(key) : null;
+            if (response != null) {
+                Metrics.MEMORY_CACHE_HITS.increment();
+            } else if (diskCache != null) {
+                response = diskCache.getQuietly(key);
+                if (response != null) {
+                    Metrics.DISK_CACHE_HITS.increment();
+                    if (cache != null) cache.put(key, response);
+                }
+            }
+            if (response == null) Metrics.CACHE_MISSES.increment();
+            return response;
+        }
+
+        /**
+         * Keeps a complete response for {@code key} in the caches and returns the form kept:
+         * gzipped if it is large enough to be sent gzipped, so hits are sent without deflating
+         * again (and inflated only for clients that do not take gzip).
+         */
+        byte[] store(String key, byte[] response) {
+            if (ServerConfig.COMPRESSION_LEVEL > 0 && response.length > ServerConfig.COMPRESSION_MIN_BYTES) {
+                response = Compression.gzip(response, ServerConfig.COMPRESSION_LEVEL);
+            }
+            if (cache != null) cache.put(key, response);
+            if (diskCache != null) diskCache.putQuietly(key, response);
+            return response;
+        }
+
+        private static void sendError(HttpExchange exchange, int status, Exception e) throws IOException {
+            byte[] response = ReportJson.error(e).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
             }
-            
-            json.append("]}");
-            return json.toString();
-            
-        } catch (Exception e) {
-            return "{\"success\": false, \"error\": \"" + escapeJson(e.getMessage()) + "\"}";
         }
     }
 
-    private static String estimateTime(MethodReport r) {
-        if (r.loops.isEmpty() && !r.isRecursive) return "O(1)";
-        if (r.loops.isEmpty()) return "O(n)";
+    /** Passes bytes through to {@code out}, keeping a copy of them up to {@code limit} bytes. */
+    static class CapturingOutputStream extends FilterOutputStream {
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
 
-        // Only multiply loops up to the max nesting depth
-        StringBuilder sb = new StringBuilder("O(");
-        boolean first = true;
-        
-        int nestedCount = 0;
-        for (LoopGrowth g : r.loops) {
-            nestedCount++;
-            if (nestedCount > r.maxNestedLoopDepth) {
-                // Sequential loop - add instead of multiply
-                sb.append(" + ");
-            } else if (!first) {
-                // Nested loop - multiply
-                sb.append(" * ");
-            }
-            first = false;
+        CapturingOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
 
-            switch (g) {
-                case CONSTANT -> sb.append("1");
-                case LINEAR -> sb.append("n");
-                case LOGARITHMIC -> sb.append("log n");
-                default -> sb.append("?");
-            }
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            keep(new byte[] {(byte) b}, 0, 1);
         }
 
-        sb.append(")");
-        return sb.toString();
-    }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            keep(b, off, len);
+        }
 
-    private static String escapeJson(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t");
+        private void keep(byte[] b, int off, int len) {
+            if (copy == null) return;
+            if (copy.size() + len > limit) {
+                copy = null;
+            } else {
+                copy.write(b, off, len);
+            }
+        }
+
+        /** Everything written so far, or {@code null} if it went over the limit. */
+        byte[] captured() {
+            return copy == null ? null : copy.toByteArray();
+        }
     }
 
     private static String getIndexHTML() {
@@ -462,6 +682,10 @@ public class CodeAnalyzerServer {
 
                 if (data.success) {
                     displayResults(data.results);
+                    if (data.truncated) {
+                        resultsDiv.insertAdjacentHTML('afterbegin',
+                            `<div class="error"><strong>Partial results:</strong> ${data.truncation}</div>`);
+                    }
                 } else {
                     resultsDiv.innerHTML = `<div class="error"><strong>Error:</strong> ${data.error}</div>`;
                 }
@@ -482,7 +706,7 @@ public class CodeAnalyzerServer {
             results.forEach(result => {
                 html += `
                     <div class="method-card">
-                        <h3>Method: ${result.method}</h3>
+                        <h3>Method: ${result.signature}</h3>
                         <div class="complexity-info">
                             <div class="complexity-badge time-complexity">
                                 ⏱️ Time: ${result.timeComplexity}
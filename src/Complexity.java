@@ -0,0 +1,144 @@
+import java.util.Collection;
+
+/**
+ * Time-complexity estimates shared by every front end. A cost is a term
+ * {@code n^a * (log n)^b}, packed into an int ({@code a} in the high 16 bits, {@code b} in
+ * the low 16) so comparing two packed costs compares their growth and reports store them
+ * without boxing. Costs combine by multiplication (nesting) and by maximum (sequence, since
+ * only the dominant term of a sum matters).
+ *
+ * A method's cost comes from three sources:
+ * <ul>
+ *   <li>its loop nest: each loop costs its growth times the cost of the loops enclosing it
+ *   ({@link #pathCosts}), and the method costs at least its costliest loop;</li>
+ *   <li>its calls: a callee's cost times the cost of the loops around the call;</li>
+ *   <li>recursion: methods on a call cycle are assumed to recurse to depth {@code n}.</li>
+ * </ul>
+ * {@link #compose} resolves calls over the strongly connected components of the call graph,
+ * callees before callers, so each method's cost is computed exactly once.
+ */
+final class Complexity {
+
+    static final int ONE = 0;
+    static final int LOG_N = 1;
+    static final int N = 1 << 16;
+
+    // Exponents saturate here; nothing real nests deeper, and it keeps sums from overflowing
+    private static final int MAX_EXPONENT = 0x7FFF;
+
+    private Complexity() {
+    }
+
+    static int of(LoopGrowth growth) {
+        return switch (growth) {
+            case CONSTANT -> ONE;
+            case LOGARITHMIC -> LOG_N;
+            // A loop whose growth could not be classified is assumed linear
+            case LINEAR, UNKNOWN -> N;
+        };
+    }
+
+    static int times(int a, int b) {
+        int n = Math.min(MAX_EXPONENT, (a >>> 16) + (b >>> 16));
+        int log = Math.min(MAX_EXPONENT, (a & 0xFFFF) + (b & 0xFFFF));
+        return n << 16 | log;
+    }
+
+    /**
+     * Cost of one iteration of each loop's body context: element {@code i} is the product of
+     * the growths of loop {@code i} and every loop enclosing it. Parents precede their
+     * children in the list, so one pass suffices.
+     */
+    static int[] pathCosts(LoopList loops) {
+        int[] costs = new int[loops.size()];
+        for (int i = 0; i < costs.length; i++) {
+            int parent = loops.parent(i);
+            costs[i] = times(of(loops.get(i)), parent < 0 ? ONE : costs[parent]);
+        }
+        return costs;
+    }
+
+    /**
+     * Fills in {@link MethodReport#localCost} and the per-call context costs of {@code report}
+     * from its loop tree. Run once the method has been fully visited.
+     */
+    static void prepare(MethodReport report) {
+        int[] paths = pathCosts(report.loops);
+        int local = ONE;
+        for (int cost : paths) {
+            local = Math.max(local, cost);
+        }
+        report.localCost = local;
+        report.callsTo.resolveContexts(loop -> loop < 0 ? ONE : paths[loop]);
+    }
+
+    /**
+     * Composed cost of every method of {@code graph}, indexed by method id. {@code methods} must
+     * be the reports the graph was built from, in the same order. Tarjan's algorithm finishes
+     * a component only after every component it calls, so costs are settled in that order and
+     * a caller only ever reads finished callee costs.
+     */
+    static int[] compose(CallGraph graph, Collection<MethodReport> methods) {
+        int[] costs = new int[graph.size()];
+        for (MethodReport m : methods) {
+            costs[graph.id(m.id())] = m.localCost;
+        }
+
+        int[] component = new int[graph.size()];
+        int[] counter = {0};
+        graph.forEachComponent(members -> {
+            int mark = ++counter[0];
+            for (int m : members) {
+                component[m] = mark;
+            }
+
+            int base = ONE;
+            boolean recursive = members.length > 1;
+            for (int m : members) {
+                base = Math.max(base, costs[m]);
+                for (int i = 0; i < graph.calleeCount(m); i++) {
+                    int callee = graph.callee(m, i);
+                    if (component[callee] == mark) {
+                        recursive = true;
+                    } else {
+                        base = Math.max(base, times(graph.weight(m, i), costs[callee]));
+                    }
+                }
+            }
+            int cost = recursive ? times(base, N) : base;
+            for (int m : members) {
+                costs[m] = cost;
+            }
+        });
+        return costs;
+    }
+
+    /** Renders a cost in the report format, e.g. {@code O(n * log n)}; n^4 and up use exponents. */
+    static String render(int cost) {
+        int n = cost >>> 16;
+        int log = cost & 0xFFFF;
+        if (n == 0 && log == 0) return "O(1)";
+
+        StringBuilder sb = new StringBuilder("O(");
+        factor(sb, "n", n);
+        if (n > 0 && log > 0) sb.append(" * ");
+        factor(sb, "log n", log);
+        return sb.append(')').toString();
+    }
+
+    private static void factor(StringBuilder sb, String base, int exponent) {
+        if (exponent > 3) {
+            sb.append(base.equals("n") ? "n^" + exponent : "(log n)^" + exponent);
+            return;
+        }
+        for (int i = 0; i < exponent; i++) {
+            if (i > 0) sb.append(" * ");
+            sb.append(base);
+        }
+    }
+
+    /** Time complexity of {@code r} as reported, calls and recursion included. */
+    static String time(MethodReport r) {
+        return render(r.cost);
+    }
+}
@@ -1,4 +1,7 @@
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
 import com.github.javaparser.ast.expr.*;
 import com.github.javaparser.ast.stmt.*;
 import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
@@ -11,114 +14,296 @@ enum LoopGrowth {
 
 class MethodReport {
     String name;
-    List<LoopGrowth> loops = new ArrayList<>();
+    // Declaring type, package-qualified, e.g. "com.acme.Outer.Inner"
+    String owner;
+    // Name and parameter types, e.g. "sort(int[], int)"
+    String signature;
+    int parameterCount;
+    boolean varargs;
+    LoopList loops = new LoopList();
     int maxNestedLoopDepth = 0;
+    // Packed Complexity costs: of the method's own loops, and with its calls composed in
+    int localCost = Complexity.ONE;
+    int cost = Complexity.ONE;
     boolean isRecursive = false;
-    Set<String> callsTo = new HashSet<>();
+    // Methods on the same call cycle (itself included), shared by all of them; null if not recursive
+    List<String> recursionGroup = null;
+    // Call keys, see ComplexityVisitor.callKey
+    final CallSet callsTo;
+
+    MethodReport() {
+        this(new CallSet.Keys());
+    }
+
+    /** A report whose call keys are stored in {@code callKeys}, shared with other reports. */
+    MethodReport(CallSet.Keys callKeys) {
+        this.callsTo = new CallSet(callKeys);
+    }
+
+    /** Identity that tells overloads and same-named methods of different types apart. */
+    String id() {
+        return owner + "." + signature;
+    }
+
+    boolean accepts(int arguments) {
+        return arguments == parameterCount || (varargs && arguments >= parameterCount - 1);
+    }
 }
 
 public class ComplexityVisitor extends VoidVisitorAdapter<Void> {
 
+    // Ticked at every statement and compound expression; throws Budget.Exhausted when used up
+    private final Budget budget;
+
     private String currentMethod = null;
-    private final Map<String, MethodReport> reports = new HashMap<>();
+    // In declaration order, so results do not depend on hashing or on how the work was split
+    private final Map<String, MethodReport> reports = new LinkedHashMap<>();
     private int currentLoopDepth = 0;
 
+    // Indexes into the current report's loops of the loops open around the node being
+    // visited, innermost last (-1 for loops outside any method); the current method's start
+    // at loopBase, so loops of enclosing methods are not mistaken for its own
+    private int[] loopStack = new int[8];
+    private int loopTop = 0;
+    private int loopBase = 0;
+
+    // Shared by this visitor's reports: methods of a file mostly call the same few keys and
+    // belong to the same few types
+    private final CallSet.Keys callKeys = new CallSet.Keys();
+    private final Map<String, String> owners = new HashMap<>();
+
+    // Update patterns seen so far in the body of each open while/do loop, innermost last.
+    // Folded into the enclosing loop when a body closes, so every node is visited once.
+    private static final int INCREMENT_OR_ADD = 1;
+    private static final int MULTIPLY_OR_DIVIDE = 2;
+    private int[] bodyUpdates = new int[8];
+    private int openBodies = 0;
+
+    public ComplexityVisitor() {
+        this(Budget.unlimited());
+    }
+
+    ComplexityVisitor(Budget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Adds the methods found by {@code other}, which visited source that comes after
+     * everything this visitor saw. A method declared in both (same owner and signature) keeps
+     * one report, as it would if one visitor had seen both.
+     */
+    void merge(ComplexityVisitor other) {
+        for (MethodReport theirs : other.reports.values()) {
+            MethodReport ours = reports.putIfAbsent(theirs.id(), theirs);
+            if (ours != null) {
+                int offset = ours.loops.size();
+                ours.loops.append(theirs.loops);
+                ours.maxNestedLoopDepth = Math.max(ours.maxNestedLoopDepth, theirs.maxNestedLoopDepth);
+                ours.callsTo.addAll(theirs.callsTo, offset);
+            }
+        }
+    }
+
     public Collection<MethodReport> getReports() {
-        detectMutualRecursion();
-        return reports.values();
+        for (MethodReport report : reports.values()) {
+            Complexity.prepare(report);
+        }
+        analyzeCallGraph();
+        for (MethodReport report : reports.values()) {
+            report.loops.trim();
+            report.callsTo.compact();
+        }
+        // A plain list, so callers holding on to the reports do not also keep the map
+        return new ArrayList<>(reports.values());
     }
 
-    private void detectMutualRecursion() {
-        // Check for cycles in the call graph
-        for (String method : reports.keySet()) {
-            if (hasCycle(method, new HashSet<>(), new HashSet<>())) {
-                reports.get(method).isRecursive = true;
+    private void analyzeCallGraph() {
+        // Strongly-connected-components passes over the call graph; calls to methods
+        // declared elsewhere cannot close a cycle here, and cost nothing beyond the call
+        CallResolver resolver = new CallResolver();
+        for (MethodReport report : reports.values()) {
+            resolver.add(report);
+        }
+
+        CallGraph graph = CallGraph.of(reports.values(), resolver);
+        int[] costs = Complexity.compose(graph, reports.values());
+        for (MethodReport report : reports.values()) {
+            report.cost = costs[graph.id(report.id())];
+        }
+
+        for (int[] group : graph.recursiveGroups()) {
+            List<String> members = new ArrayList<>();
+            for (int id : group) {
+                members.add(graph.names[id]);
+            }
+            Collections.sort(members);
+            for (String method : members) {
+                MethodReport report = reports.get(method);
+                report.isRecursive = true;
+                report.recursionGroup = members;
             }
         }
     }
 
-    private boolean hasCycle(String method, Set<String> visiting, Set<String> visited) {
-        if (visiting.contains(method)) return true;
-        if (visited.contains(method)) return false;
+    /**
+     * Encodes a call site for {@link CallResolver}: {@code "name/arity"} for calls without a
+     * receiver (or on {@code this}/{@code super}), {@code "Type.name/arity"} when the receiver
+     * looks like a type name, and {@code "*.name/arity"} for any other receiver.
+     */
+    static String callKey(MethodCallExpr n) {
+        String call = n.getNameAsString() + "/" + n.getArguments().size();
+        if (n.getScope().isEmpty()) return call;
 
-        visiting.add(method);
-        MethodReport report = reports.get(method);
-        if (report != null) {
-            for (String callee : report.callsTo) {
-                if (hasCycle(callee, visiting, visited)) {
-                    return true;
-                }
+        Expression scope = n.getScope().get();
+        if (scope.isThisExpr() || scope.isSuperExpr()) return call;
+
+        String receiver = null;
+        if (scope.isNameExpr()) receiver = scope.asNameExpr().getNameAsString();
+        if (scope.isFieldAccessExpr()) receiver = scope.asFieldAccessExpr().getNameAsString();
+        if (receiver != null && Character.isUpperCase(receiver.charAt(0))) {
+            return receiver + "." + call;
+        }
+        return "*." + call;
+    }
+
+    /** Package-qualified name of the type declaring {@code n}; anonymous classes get "$new Type". */
+    static String ownerOf(Node n) {
+        Deque<String> names = new ArrayDeque<>();
+        for (Node p = n.getParentNode().orElse(null); p != null; p = p.getParentNode().orElse(null)) {
+            if (p instanceof TypeDeclaration<?> type) {
+                names.push(type.getNameAsString());
+            } else if (p instanceof ObjectCreationExpr creation && creation.getAnonymousClassBody().isPresent()) {
+                names.push("$new " + creation.getTypeAsString());
+            } else if (p instanceof CompilationUnit cu && cu.getPackageDeclaration().isPresent()) {
+                names.push(cu.getPackageDeclaration().get().getNameAsString());
             }
         }
-        visiting.remove(method);
-        visited.add(method);
-        return false;
+        return String.join(".", names);
     }
 
     @Override
     public void visit(MethodDeclaration n, Void arg) {
-        currentMethod = n.getNameAsString();
+        budget.tick();
+        // Methods of local and anonymous classes nest inside other methods
+        String enclosingMethod = currentMethod;
+        int enclosingLoopDepth = currentLoopDepth;
+        int enclosingLoopBase = loopBase;
+
+        MethodReport report = new MethodReport(callKeys);
+        report.name = n.getNameAsString();
+        String owner = ownerOf(n);
+        report.owner = owners.computeIfAbsent(owner, k -> k);
+        report.signature = n.getSignature().asString();
+        report.parameterCount = n.getParameters().size();
+        report.varargs = report.parameterCount > 0 && n.getParameter(report.parameterCount - 1).isVarArgs();
+
+        currentMethod = report.id();
         currentLoopDepth = 0;
-        reports.putIfAbsent(currentMethod, new MethodReport());
-        reports.get(currentMethod).name = currentMethod;
+        loopBase = loopTop;
+        reports.putIfAbsent(currentMethod, report);
 
         super.visit(n, arg);
-        currentMethod = null;
+        currentMethod = enclosingMethod;
+        currentLoopDepth = enclosingLoopDepth;
+        loopBase = enclosingLoopBase;
     }
 
     @Override
     public void visit(MethodCallExpr n, Void arg) {
+        budget.tick();
         if (currentMethod != null) {
-            String calledMethod = n.getNameAsString();
-            reports.get(currentMethod).callsTo.add(calledMethod);
-            
-            if (calledMethod.equals(currentMethod)) {
-                reports.get(currentMethod).isRecursive = true;
-            }
+            reports.get(currentMethod).callsTo.add(callKey(n), currentLoop());
         }
         super.visit(n, arg);
     }
 
     @Override
     public void visit(ForStmt n, Void arg) {
+        budget.tick();
         currentLoopDepth++;
         MethodReport report = reports.get(currentMethod);
-        report.loops.add(detectForLoopGrowth(n));
-        report.maxNestedLoopDepth = Math.max(report.maxNestedLoopDepth, currentLoopDepth);
+        // Loops outside methods (constructors, initializers) have no report to go into
+        if (report != null) {
+            report.maxNestedLoopDepth = Math.max(report.maxNestedLoopDepth, currentLoopDepth);
+        }
+        enterLoop(report, detectForLoopGrowth(n));
         super.visit(n, arg);
+        loopTop--;
         currentLoopDepth--;
     }
 
     @Override
     public void visit(ForEachStmt n, Void arg) {
+        budget.tick();
         currentLoopDepth++;
         MethodReport report = reports.get(currentMethod);
-        report.loops.add(LoopGrowth.LINEAR);
-        report.maxNestedLoopDepth = Math.max(report.maxNestedLoopDepth, currentLoopDepth);
+        // Loops outside methods (constructors, initializers) have no report to go into
+        if (report != null) {
+            report.maxNestedLoopDepth = Math.max(report.maxNestedLoopDepth, currentLoopDepth);
+        }
+        enterLoop(report, LoopGrowth.LINEAR);
         super.visit(n, arg);
+        loopTop--;
         currentLoopDepth--;
     }
 
     @Override
     public void visit(WhileStmt n, Void arg) {
+        budget.tick();
         currentLoopDepth++;
         MethodReport report = reports.get(currentMethod);
-        report.loops.add(detectWhileLoopGrowth(n));
-        report.maxNestedLoopDepth = Math.max(report.maxNestedLoopDepth, currentLoopDepth);
-        super.visit(n, arg);
+        // Loops outside methods (constructors, initializers) have no report to go into
+        if (report != null) {
+            report.maxNestedLoopDepth = Math.max(report.maxNestedLoopDepth, currentLoopDepth);
+        }
+        // Growth is only known once the body has been visited; reserve the slot so loops
+        // stay in source order and the body's loops and calls can refer to it
+        int slot = enterLoop(report, LoopGrowth.UNKNOWN);
+        LoopGrowth growth = visitLoopBody(n.getBody(), arg);
+        if (report != null) {
+            report.loops.set(slot, growth);
+        }
+        n.getCondition().accept(this, arg);
+        loopTop--;
         currentLoopDepth--;
     }
 
     @Override
     public void visit(DoStmt n, Void arg) {
+        budget.tick();
         currentLoopDepth++;
         MethodReport report = reports.get(currentMethod);
-        report.loops.add(detectDoWhileGrowth(n));
-        report.maxNestedLoopDepth = Math.max(report.maxNestedLoopDepth, currentLoopDepth);
-        super.visit(n, arg);
+        // Loops outside methods (constructors, initializers) have no report to go into
+        if (report != null) {
+            report.maxNestedLoopDepth = Math.max(report.maxNestedLoopDepth, currentLoopDepth);
+        }
+        // Growth is only known once the body has been visited; reserve the slot so loops
+        // stay in source order and the body's loops and calls can refer to it
+        int slot = enterLoop(report, LoopGrowth.UNKNOWN);
+        LoopGrowth growth = visitLoopBody(n.getBody(), arg);
+        if (report != null) {
+            report.loops.set(slot, growth);
+        }
+        n.getCondition().accept(this, arg);
+        loopTop--;
         currentLoopDepth--;
     }
 
+    /** Innermost loop around the node being visited, as an index into the current report's loops, or -1. */
+    private int currentLoop() {
+        return loopTop > loopBase ? loopStack[loopTop - 1] : -1;
+    }
+
+    /** Adds a loop to {@code report} (if any) and opens it; the caller closes it with {@code loopTop--}. */
+    private int enterLoop(MethodReport report, LoopGrowth growth) {
+        int index = report == null ? -1 : report.loops.add(growth, currentLoop());
+        if (loopTop == loopStack.length) {
+            loopStack = Arrays.copyOf(loopStack, loopTop * 2);
+        }
+        loopStack[loopTop++] = index;
+        return index;
+    }
+
     private LoopGrowth detectForLoopGrowth(ForStmt n) {
         if (n.getUpdate().isEmpty()) return LoopGrowth.LINEAR;
 
@@ -151,61 +336,106 @@ public class ComplexityVisitor extends VoidVisitorAdapter<Void> {
         return LoopGrowth.LINEAR; // Default to linear if pattern unclear
     }
 
-    private LoopGrowth detectWhileLoopGrowth(WhileStmt n) {
-        // Analyze the body to detect update patterns
-        Statement body = n.getBody();
-        return analyzeLoopBody(body);
-    }
+    private LoopGrowth visitLoopBody(Statement body, Void arg) {
+        if (openBodies == bodyUpdates.length) {
+            bodyUpdates = Arrays.copyOf(bodyUpdates, openBodies * 2);
+        }
+        bodyUpdates[openBodies++] = 0;
+        body.accept(this, arg);
+        int updates = bodyUpdates[--openBodies];
 
-    private LoopGrowth detectDoWhileGrowth(DoStmt n) {
-        // Analyze the body to detect update patterns
-        Statement body = n.getBody();
-        return analyzeLoopBody(body);
-    }
+        // The enclosing loop's body contains this one, so it has seen these updates too
+        if (openBodies > 0) {
+            bodyUpdates[openBodies - 1] |= updates;
+        }
 
-    private LoopGrowth analyzeLoopBody(Statement body) {
-        // Look for common patterns in the loop body
-        LoopBodyAnalyzer analyzer = new LoopBodyAnalyzer();
-        body.accept(analyzer, null);
-        
-        if (analyzer.hasMultiplyOrDivide) {
+        if ((updates & MULTIPLY_OR_DIVIDE) != 0) {
             return LoopGrowth.LOGARITHMIC;
         }
-        if (analyzer.hasIncrementOrAdd) {
+        if ((updates & INCREMENT_OR_ADD) != 0) {
             return LoopGrowth.LINEAR;
         }
-        
+
         // Default to linear for while/do-while loops
         return LoopGrowth.LINEAR;
     }
 
-    // Helper class to analyze loop body statements
-    private static class LoopBodyAnalyzer extends VoidVisitorAdapter<Void> {
-        boolean hasIncrementOrAdd = false;
-        boolean hasMultiplyOrDivide = false;
-
-        @Override
-        public void visit(UnaryExpr n, Void arg) {
-            if (n.getOperator() == UnaryExpr.Operator.POSTFIX_INCREMENT ||
-                n.getOperator() == UnaryExpr.Operator.PREFIX_INCREMENT ||
-                n.getOperator() == UnaryExpr.Operator.POSTFIX_DECREMENT ||
-                n.getOperator() == UnaryExpr.Operator.PREFIX_DECREMENT) {
-                hasIncrementOrAdd = true;
-            }
-            super.visit(n, arg);
+    @Override
+    public void visit(UnaryExpr n, Void arg) {
+        budget.tick();
+        if (openBodies > 0 && (n.getOperator() == UnaryExpr.Operator.POSTFIX_INCREMENT ||
+            n.getOperator() == UnaryExpr.Operator.PREFIX_INCREMENT ||
+            n.getOperator() == UnaryExpr.Operator.POSTFIX_DECREMENT ||
+            n.getOperator() == UnaryExpr.Operator.PREFIX_DECREMENT)) {
+            bodyUpdates[openBodies - 1] |= INCREMENT_OR_ADD;
         }
+        super.visit(n, arg);
+    }
 
-        @Override
-        public void visit(AssignExpr n, Void arg) {
+    @Override
+    public void visit(AssignExpr n, Void arg) {
+        budget.tick();
+        if (openBodies > 0) {
             if (n.getOperator() == AssignExpr.Operator.MULTIPLY ||
                 n.getOperator() == AssignExpr.Operator.DIVIDE) {
-                hasMultiplyOrDivide = true;
+                bodyUpdates[openBodies - 1] |= MULTIPLY_OR_DIVIDE;
             }
             if (n.getOperator() == AssignExpr.Operator.PLUS ||
                 n.getOperator() == AssignExpr.Operator.MINUS) {
-                hasIncrementOrAdd = true;
+                bodyUpdates[openBodies - 1] |= INCREMENT_OR_ADD;
             }
-            super.visit(n, arg);
         }
+        super.visit(n, arg);
+    }
+
+    // Nodes that only count against the budget. With the overrides above they cover statement
+    // blocks and the expressions that nest deeply in generated code
+
+    @Override
+    public void visit(BlockStmt n, Void arg) {
+        budget.tick();
+        super.visit(n, arg);
+    }
+
+    @Override
+    public void visit(ExpressionStmt n, Void arg) {
+        budget.tick();
+        super.visit(n, arg);
+    }
+
+    @Override
+    public void visit(IfStmt n, Void arg) {
+        budget.tick();
+        super.visit(n, arg);
+    }
+
+    @Override
+    public void visit(BinaryExpr n, Void arg) {
+        budget.tick();
+        super.visit(n, arg);
+    }
+
+    @Override
+    public void visit(EnclosedExpr n, Void arg) {
+        budget.tick();
+        super.visit(n, arg);
+    }
+
+    @Override
+    public void visit(ConditionalExpr n, Void arg) {
+        budget.tick();
+        super.visit(n, arg);
+    }
+
+    @Override
+    public void visit(LambdaExpr n, Void arg) {
+        budget.tick();
+        super.visit(n, arg);
+    }
+
+    @Override
+    public void visit(ObjectCreationExpr n, Void arg) {
+        budget.tick();
+        super.visit(n, arg);
     }
 }
@@ -0,0 +1,173 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-Encoding support for the analysis API: decoding compressed request bodies and
+ * gzipping responses for clients that ask for it.
+ */
+class Compression {
+
+    /** Thrown for a request body in a Content-Encoding we cannot decode. */
+    static class UnsupportedEncodingException extends IOException {
+        UnsupportedEncodingException(String encoding) {
+            super("Unsupported Content-Encoding: " + encoding);
+        }
+    }
+
+    private Compression() {
+    }
+
+    /** The request body, decoded according to its Content-Encoding header. */
+    static InputStream requestBody(HttpExchange exchange) throws IOException {
+        return decode(exchange.getRequestBody(), exchange.getRequestHeaders().getFirst("Content-Encoding"));
+    }
+
+    /** {@code in}, decoded according to a Content-Encoding header value ({@code null} for none). */
+    static InputStream decode(InputStream in, String encoding) throws IOException {
+        if (encoding == null) return in;
+
+        switch (encoding.trim().toLowerCase()) {
+            case "", "identity":
+                return in;
+            case "gzip", "x-gzip":
+                return new GZIPInputStream(in, 8192);
+            case "deflate":
+                return new InflaterInputStream(in);
+            default:
+                throw new UnsupportedEncodingException(encoding);
+        }
+    }
+
+    /** True if the {@code Accept-Encoding} header lists gzip (or {@code *}) without {@code q=0}. */
+    static boolean acceptsGzip(String header) {
+        if (header == null) return false;
+        for (String part : header.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) continue;
+
+            boolean refused = false;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim().replace(" ", "");
+                if (param.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(param.substring(2)) == 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (!refused) return true;
+        }
+        return false;
+    }
+
+    /** ETag of the gzipped representation of the entity tagged {@code etag}. */
+    static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    static byte[] gzip(byte[] data, int level) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (OutputStream gz = gzipStream(bytes, level)) {
+            gz.write(data);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** True if {@code data} starts with the gzip magic number, which no JSON response does. */
+    static boolean isGzip(byte[] data) {
+        return data.length >= 2 && data[0] == (byte) 0x1f && data[1] == (byte) 0x8b;
+    }
+
+    static byte[] gunzip(byte[] data) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data), 8192)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static GZIPOutputStream gzipStream(OutputStream out, int level) throws IOException {
+        return new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    /**
+     * Response body whose encoding is decided by its size. The first {@code threshold} bytes
+     * are held back: a response that ends within them is sent as is with a Content-Length;
+     * one that grows past them is sent gzipped with chunked encoding from then on, and its
+     * ETag header, if any, is switched to {@link #gzipEtag}.
+     */
+    static class ResponseStream extends OutputStream {
+        private final HttpExchange exchange;
+        private final int status;
+        private final int threshold;
+        private final int level;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private OutputStream out;
+
+        ResponseStream(HttpExchange exchange, int status, int threshold, int level) {
+            this.exchange = exchange;
+            this.status = status;
+            this.threshold = threshold;
+            this.level = level;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null) {
+                if (pending.size() + len <= threshold) {
+                    pending.write(b, off, len);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                String etag = exchange.getResponseHeaders().getFirst("ETag");
+                if (etag != null) exchange.getResponseHeaders().set("ETag", gzipEtag(etag));
+                exchange.sendResponseHeaders(status, 0);
+                out = gzipStream(exchange.getResponseBody(), level);
+                pending.writeTo(out);
+                pending = null;
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Flushing a small response early would force chunked encoding; wait for close
+            if (out != null) out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                byte[] body = pending.toByteArray();
+                pending = null;
+                exchange.sendResponseHeaders(status, body.length);
+                out = exchange.getResponseBody();
+                out.write(body);
+            }
+            out.close();
+        }
+    }
+}
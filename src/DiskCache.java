@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Append-only segment file of serialized {@code /analyze} responses, so results survive
+ * restarts. One segment per {@link Analyzer#VERSION}, locked by the process using it. Once
+ * this process holds its own segment, it deletes those of other versions that no process
+ * holds, which is how rule changes invalidate old results without breaking a rolling deploy
+ * whose older servers share the directory. A segment that another process of the same
+ * version holds is left alone, and this process runs without a disk cache.
+ * Appends stop once the segment would grow past {@code maxBytes}.
+ *
+ * Record layout: {@code int MAGIC, byte[16] key, int length, byte[length] response}.
+ * The index is an open-addressing table from the first 8 key bytes to the record offset,
+ * built by scanning the segment on first use. Reads go through a memory mapping of the file.
+ * The mapping runs past the last record, over a zero-filled tail the file is extended by, so
+ * appends only need a new mapping when they outgrow it. {@link #close} trims the tail off; a
+ * tail left by a crash reads as the end of the records on the next scan.
+ */
+class DiskCache {
+
+    private static final int MAGIC = 0xC0DEA11A;
+    private static final int KEY_BYTES = 16;
+    private static final int HEADER_BYTES = 4 + KEY_BYTES + 4;
+    private static final HexFormat HEX = HexFormat.of();
+    // Smallest mapping; each new one is twice the bytes in use
+    private static final long MIN_MAPPING = 1 << 20;
+
+    private final Path dir;
+    private final Path segment;
+    private final long maxBytes;
+    private FileChannel channel;
+    // Set once closed, or if another process holds the segment; every call is then a miss
+    private boolean disabled;
+    private MappedByteBuffer mapped;
+    private long end;
+
+    // Index: slot i holds key prefix keys[i] at offsets[i]; offset -1 means empty
+    private long[] keys;
+    private long[] offsets;
+    private int count;
+
+    DiskCache(Path dir, long maxBytes) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.segment = dir.resolve("results-" + Analyzer.VERSION + ".seg");
+        // Offsets into the mapping are ints
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+    }
+
+    /** Opens and locks the segment and builds the index; called on first use if not done earlier. */
+    synchronized void load() throws IOException {
+        if (channel != null || disabled) return;
+
+        FileChannel opened = FileChannel.open(segment, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Held until the channel is closed, by close() or the process exiting
+        if (!tryLock(opened)) {
+            opened.close();
+            disabled = true;
+            throw new IOException(segment + " is in use by another process");
+        }
+        channel = opened;
+        deleteStale();
+
+        keys = new long[1024];
+        offsets = new long[1024];
+        Arrays.fill(offsets, -1);
+        count = 0;
+
+        long size = channel.size();
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        long pos = 0;
+        while (pos + HEADER_BYTES <= size) {
+            int magic = mapped.getInt((int) pos);
+            int length = mapped.getInt((int) pos + 4 + KEY_BYTES);
+            if (magic != MAGIC || length < 0 || pos + HEADER_BYTES + length > size) break;
+            index(mapped.getLong((int) pos + 4), pos);
+            pos += HEADER_BYTES + length;
+        }
+
+        // Drop a partial record left by a crash mid-append, or the tail of an earlier mapping
+        if (pos < size) channel.truncate(pos);
+        end = pos;
+        mapped = null;
+        ensureMapped(end);
+    }
+
+    synchronized byte[] get(String key) throws IOException {
+        load();
+        if (disabled) return null;
+        int pos = find(HEX.parseHex(key));
+        if (pos < 0) return null;
+
+        byte[] value = new byte[mapped.getInt(pos + 4 + KEY_BYTES)];
+        mapped.get(pos + HEADER_BYTES, value);
+        return value;
+    }
+
+    synchronized void put(String key, byte[] value) throws IOException {
+        load();
+        if (disabled) return;
+        byte[] k = HEX.parseHex(key);
+        // A full segment keeps serving what it has; it starts over with the next version
+        if (find(k) >= 0 || end + HEADER_BYTES + value.length > maxBytes) return;
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + value.length);
+        record.putInt(MAGIC).put(k).putInt(value.length).put(value).flip();
+        long pos = end;
+        while (record.hasRemaining()) {
+            channel.write(record, end + record.position());
+        }
+        end += record.limit();
+        ensureMapped(end);
+        index(record.getLong(4), pos);
+    }
+
+    // The server treats the disk cache as best-effort: I/O problems are reported and the
+    // request carries on as a miss
+    void loadQuietly() {
+        try {
+            load();
+        } catch (IOException e) {
+            System.err.println("Disk cache unavailable: " + e.getMessage());
+        }
+    }
+
+    byte[] getQuietly(String key) {
+        try {
+            return get(key);
+        } catch (IOException e) {
+            System.err.println("Disk cache read failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    void putQuietly(String key, byte[] value) {
+        try {
+            put(key, value);
+        } catch (IOException e) {
+            System.err.println("Disk cache write failed: " + e.getMessage());
+        }
+    }
+
+    /** Trims the segment to its records and releases it; later calls are misses. */
+    synchronized void close() throws IOException {
+        disabled = true;
+        if (channel == null) return;
+        mapped = null;
+        try {
+            channel.truncate(end);
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            System.err.println("Disk cache close failed: " + e.getMessage());
+        }
+    }
+
+    /** Deletes the segments of other versions that no process holds. */
+    private void deleteStale() throws IOException {
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(dir, "results-*.seg")) {
+            for (Path p : stale) {
+                if (p.equals(segment)) continue;
+                try (FileChannel other = FileChannel.open(p, StandardOpenOption.WRITE)) {
+                    // Deleted while locked, so no server can take it over in between
+                    if (tryLock(other)) Files.delete(p);
+                } catch (IOException e) {
+                    // Gone already, or not deletable while open here; the next start tries again
+                }
+            }
+        }
+    }
+
+    private static boolean tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            // Held by another DiskCache in this process
+            return false;
+        }
+    }
+
+    private int find(byte[] key) {
+        long prefix = ByteBuffer.wrap(key).getLong();
+        for (int slot = slot(prefix); offsets[slot] >= 0; slot = (slot + 1) & (keys.length - 1)) {
+            int pos = (int) offsets[slot];
+            if (keys[slot] == prefix && mapped.slice(pos + 4, KEY_BYTES).equals(ByteBuffer.wrap(key))) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /** Maps at least {@code size} bytes, with room for appends to grow into. */
+    private void ensureMapped(long size) throws IOException {
+        if (mapped != null && mapped.capacity() >= size) return;
+        long capacity = Math.max(size, Math.min(maxBytes, Math.max(MIN_MAPPING, 2 * size)));
+        if (channel.size() < capacity) {
+            // Extend the file to cover the mapping; the new bytes read as zeros
+            channel.write(ByteBuffer.allocate(1), capacity - 1);
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, capacity);
+    }
+
+    private void index(long prefix, long offset) {
+        if (2 * (count + 1) > keys.length) {
+            long[] oldKeys = keys;
+            long[] oldOffsets = offsets;
+            keys = new long[oldKeys.length * 2];
+            offsets = new long[oldOffsets.length * 2];
+            Arrays.fill(offsets, -1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldOffsets[i] >= 0) insert(oldKeys[i], oldOffsets[i]);
+            }
+        }
+        insert(prefix, offset);
+        count++;
+    }
+
+    private void insert(long prefix, long offset) {
+        int slot = slot(prefix);
+        while (offsets[slot] >= 0) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = prefix;
+        offsets[slot] = offset;
+    }
+
+    private int slot(long prefix) {
+        return (int) (prefix ^ (prefix >>> 32)) & (keys.length - 1);
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs batch analyses in the background for {@code /jobs}. At most {@code concurrency} jobs
+ * run at once; the rest wait in a priority queue of at most {@code queueDepth} entries
+ * (higher priority first, then submission order). Finished jobs keep their results for
+ * {@code ttlMillis} so clients can come back for them, and a body identical to one already
+ * queued, running or finished is answered with the existing job instead of a new analysis.
+ * At most {@code maxRetained} finished jobs, holding at most {@code retainedBytes} of results
+ * between them, are kept; past either limit the oldest finished jobs are forgotten early.
+ * Queued and running jobs may hold at most {@code bodyBudget} bytes of request bodies
+ * between them; a submission that would go over it is turned away like one to a full queue.
+ * Each file a job analyzes takes a slot from the server's {@link AdmissionControl}, waiting
+ * for one if requests have them all, so jobs only use capacity requests leave free.
+ */
+class JobScheduler {
+
+    enum Priority {
+        LOW, NORMAL, HIGH
+    }
+
+    enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+
+        boolean finished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    static class Job implements Runnable, Comparable<Job> {
+        final String id = UUID.randomUUID().toString();
+        final String key;
+        final Priority priority;
+        final long sequence;
+        private final JobScheduler scheduler;
+
+        // Released once the job has split it into files
+        private byte[] body;
+        private final String contentType;
+
+        volatile State state = State.QUEUED;
+        volatile int files = -1;
+        volatile int filesDone;
+        volatile String error;
+        volatile long finishedAt;
+        // Charged against the body budget from submission until the job finishes
+        private final long bodyBytes;
+        // UTF-8 size of the result lines, charged against the retained-bytes budget once finished
+        private long resultBytes;
+        private volatile boolean cancelled;
+        final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+        private Job(JobScheduler scheduler, String key, byte[] body, String contentType,
+                    Priority priority, long sequence) {
+            this.scheduler = scheduler;
+            this.key = key;
+            this.body = body;
+            this.bodyBytes = body.length;
+            this.contentType = contentType;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int byPriority = other.priority.compareTo(priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public void run() {
+            scheduler.queued.decrementAndGet();
+            if (cancelled) {
+                // Cancelled after it left the queue but before it started
+                finish(State.CANCELLED, null);
+                return;
+            }
+            state = State.RUNNING;
+
+            try {
+                List<Callable<String>> tasks = new ArrayList<>();
+                BatchHandler.readTasks(new ByteArrayInputStream(body), contentType, ServerConfig.JOB_MAX_BODY_BYTES, tasks::add);
+                body = null;
+                files = tasks.size();
+
+                // Files run one after another so a job never holds more than one worker;
+                // cancellation takes effect between files
+                for (Callable<String> task : tasks) {
+                    if (cancelled) break;
+                    scheduler.admission.admit();
+                    try {
+                        lines.add(task.call());
+                    } finally {
+                        scheduler.admission.release();
+                    }
+                    filesDone++;
+                }
+                finish(cancelled ? State.CANCELLED : State.DONE, null);
+            } catch (Exception e) {
+                finish(State.FAILED, e.getMessage());
+            }
+        }
+
+        private void finish(State end, String message) {
+            body = null;
+            error = message;
+            finishedAt = System.currentTimeMillis();
+            state = end;
+            scheduler.retire(this);
+            scheduler.release(this);
+        }
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final AdmissionControl admission;
+    private final int queueDepth;
+    private final long ttlMillis;
+    private final int maxRetained;
+    private final long retainedBytes;
+    private final long bodyBudget;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Job> byKey = new ConcurrentHashMap<>();
+    // Finished jobs still kept, oldest first, and the size of their results; guarded by this
+    private final LinkedHashMap<String, Job> finished = new LinkedHashMap<>();
+    private long finishedBytes;
+    // Bodies of queued and running jobs, whose files stay in memory until they finish; guarded by this
+    private long bodyBytes;
+
+    JobScheduler(int concurrency, int queueDepth, long ttlMillis, int maxRetained, long retainedBytes,
+                 long bodyBudget, AdmissionControl admission) {
+        this.queueDepth = queueDepth;
+        this.ttlMillis = ttlMillis;
+        this.maxRetained = maxRetained;
+        this.retainedBytes = retainedBytes;
+        this.bodyBudget = bodyBudget;
+        this.admission = admission;
+        // Jobs are handed over with execute(), not submit(), so the queue orders the jobs
+        // themselves rather than FutureTasks wrapping them
+        this.workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), Thread.ofPlatform().name("job-", 0).daemon().factory());
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("job-sweeper").daemon().factory());
+        long period = Math.max(1000, Math.min(ttlMillis, 60_000));
+        sweeper.scheduleAtFixedRate(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    static JobScheduler fromConfig(AdmissionControl admission) {
+        return new JobScheduler(ServerConfig.JOB_CONCURRENCY, ServerConfig.JOB_QUEUE_DEPTH,
+                TimeUnit.SECONDS.toMillis(ServerConfig.JOB_TTL_SECONDS),
+                ServerConfig.JOB_MAX_RETAINED, ServerConfig.JOB_RETAINED_BYTES, ServerConfig.JOB_BODY_BYTES,
+                admission);
+    }
+
+    /** The job for a submitted body, and whether it was created for it or already existed. */
+    record Submission(Job job, boolean created) {
+    }
+
+    /**
+     * Queues a job for {@code body}, or returns the live job already holding the same input.
+     * Throws {@link RejectedExecutionException} if the queue is full or {@code body} does not
+     * fit in what is left of the body budget.
+     */
+    synchronized Submission submit(byte[] body, String contentType, Priority priority) {
+        String key = ResultCache.key(body) + "/" + contentType;
+        Job existing = byKey.get(key);
+        if (existing != null && (existing.state == State.DONE || !existing.state.finished())) {
+            return new Submission(existing, false);
+        }
+
+        if (queued.get() >= queueDepth) {
+            throw new RejectedExecutionException("Job queue is full");
+        }
+        if (bodyBytes + body.length > bodyBudget) {
+            throw new RejectedExecutionException("Queued jobs hold too much input");
+        }
+        Job job = new Job(this, key, body, contentType, priority, sequence.getAndIncrement());
+        jobs.put(job.id, job);
+        byKey.put(key, job);
+        queued.incrementAndGet();
+        bodyBytes += body.length;
+        workers.execute(job);
+        return new Submission(job, true);
+    }
+
+    /** The job with {@code id}, or {@code null} if unknown or expired. */
+    Job get(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Stops a queued or running job (a running one after its current file). A finished job
+     * is forgotten instead, results included.
+     */
+    synchronized void cancel(Job job) {
+        if (job.state.finished()) {
+            forget(job);
+            return;
+        }
+        job.cancelled = true;
+        if (workers.remove(job)) {
+            queued.decrementAndGet();
+            job.finish(State.CANCELLED, null);
+        }
+    }
+
+    private synchronized void expire() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        // Finished jobs are in finishing order, so the expired ones come first
+        while (!finished.isEmpty()) {
+            Job oldest = finished.values().iterator().next();
+            if (oldest.finishedAt >= cutoff) break;
+            forget(oldest);
+        }
+    }
+
+    /**
+     * Starts the retention of a job that just finished, and forgets the oldest finished jobs
+     * while more than {@code maxRetained} are kept or their results exceed {@code retainedBytes}.
+     * The job itself is always kept, even if its results alone are over the budget.
+     */
+    private synchronized void retire(Job job) {
+        // Already forgotten: a finished job cancelled before it got here
+        if (jobs.get(job.id) != job) return;
+        long bytes = 0;
+        synchronized (job.lines) {
+            for (String line : job.lines) {
+                bytes += ReportJson.utf8Length(line) + 1;
+            }
+        }
+        job.resultBytes = bytes;
+        finished.put(job.id, job);
+        finishedBytes += bytes;
+
+        while (finished.size() > maxRetained || finishedBytes > retainedBytes) {
+            Job oldest = finished.values().iterator().next();
+            if (oldest == job) break;
+            forget(oldest);
+        }
+    }
+
+    private synchronized void release(Job job) {
+        bodyBytes -= job.bodyBytes;
+    }
+
+    private void forget(Job job) {
+        jobs.remove(job.id);
+        byKey.remove(job.key, job);
+        if (finished.remove(job.id) != null) finishedBytes -= job.resultBytes;
+    }
+}
@@ -0,0 +1,171 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipException;
+
+/**
+ * Asynchronous batch analysis for inputs too large to wait on in one request. Bodies are the
+ * same as for {@code /analyze/batch} (a zip archive or NDJSON lines).
+ *
+ * <ul>
+ *   <li>{@code POST /jobs?priority=high|normal|low}: queues the job and answers {@code 202}
+ *   with its status and a Location header, or {@code 200} with the existing job if the same
+ *   body was already submitted and has not failed or been cancelled.</li>
+ *   <li>{@code GET /jobs/{id}}: the job's status and progress.</li>
+ *   <li>{@code GET /jobs/{id}/result}: NDJSON, one line per file in input order, once the
+ *   job is done; {@code 409} with the status before that.</li>
+ *   <li>{@code DELETE /jobs/{id}}: cancels a queued or running job, or discards a finished one.</li>
+ * </ul>
+ */
+class JobsHandler implements HttpHandler {
+
+    private final JobScheduler scheduler;
+
+    JobsHandler(JobScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+
+        if (path.equals("/jobs") || path.equals("/jobs/")) {
+            if (!"POST".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            submit(exchange);
+            return;
+        }
+
+        String[] parts = path.substring("/jobs/".length()).split("/");
+        JobScheduler.Job job = parts.length <= 2 ? scheduler.get(parts[0]) : null;
+        boolean result = parts.length == 2 && parts[1].equals("result");
+        if (job == null || (parts.length == 2 && !result)) {
+            sendJson(exchange, 404, "{\"success\": false, \"error\": \"No such job\"}");
+            return;
+        }
+
+        if (result) {
+            if (!"GET".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            sendResult(exchange, job);
+        } else if ("GET".equals(method)) {
+            sendJson(exchange, 200, status(job));
+        } else if ("DELETE".equals(method)) {
+            scheduler.cancel(job);
+            sendJson(exchange, 200, status(job));
+        } else {
+            exchange.getResponseHeaders().set("Allow", "GET, DELETE");
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        JobScheduler.Priority priority = priority(exchange.getRequestURI().getQuery());
+        if (priority == null) {
+            sendJson(exchange, 400, "{\"success\": false, \"error\": \"priority must be high, normal or low\"}");
+            return;
+        }
+
+        byte[] body;
+        try {
+            body = RequestBody.read(exchange, ServerConfig.JOB_MAX_BODY_BYTES);
+        } catch (RequestBody.TooLargeException e) {
+            sendJson(exchange, 413, ReportJson.error(e));
+            return;
+        } catch (Compression.UnsupportedEncodingException e) {
+            sendJson(exchange, 415, ReportJson.error(e));
+            return;
+        } catch (ZipException | EOFException e) {
+            sendJson(exchange, 400, ReportJson.error(e));
+            return;
+        }
+
+        JobScheduler.Submission submission;
+        try {
+            submission = scheduler.submit(body, exchange.getRequestHeaders().getFirst("Content-Type"), priority);
+        } catch (RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(ServerConfig.RETRY_AFTER_SECONDS));
+            sendJson(exchange, 503, ReportJson.error(e));
+            return;
+        }
+
+        JobScheduler.Job job = submission.job();
+        exchange.getResponseHeaders().set("Location", "/jobs/" + job.id);
+        sendJson(exchange, submission.created() ? 202 : 200, status(job));
+    }
+
+    private static void sendResult(HttpExchange exchange, JobScheduler.Job job) throws IOException {
+        if (job.state != JobScheduler.State.DONE) {
+            sendJson(exchange, 409, status(job));
+            return;
+        }
+
+        List<String> lines;
+        synchronized (job.lines) {
+            lines = new ArrayList<>(job.lines);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream os = exchange.getResponseBody()) {
+            for (String line : lines) {
+                os.write(line.getBytes(StandardCharsets.UTF_8));
+                os.write('\n');
+            }
+        }
+    }
+
+    static String status(JobScheduler.Job job) {
+        StringBuilder json = new StringBuilder(160);
+        json.append("{\"id\": \"").append(job.id)
+                .append("\", \"status\": \"").append(job.state.name().toLowerCase(Locale.ROOT))
+                .append("\", \"priority\": \"").append(job.priority.name().toLowerCase(Locale.ROOT))
+                .append("\", \"files\": ").append(job.files < 0 ? "null" : String.valueOf(job.files))
+                .append(", \"filesDone\": ").append(job.filesDone);
+        if (job.error != null) {
+            json.append(", \"error\": \"").append(ReportJson.escapeJson(job.error)).append('"');
+        }
+        return json.append('}').toString();
+    }
+
+    private static JobScheduler.Priority priority(String query) {
+        if (query == null) return JobScheduler.Priority.NORMAL;
+        for (String param : query.split("&")) {
+            if (param.startsWith("priority=")) {
+                try {
+                    return JobScheduler.Priority.valueOf(param.substring("priority=".length()).toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return JobScheduler.Priority.NORMAL;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+}
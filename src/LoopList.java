@@ -0,0 +1,88 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * The loops of one method in source order, one byte per loop (its {@link LoopGrowth} ordinal)
+ * plus the index of the loop it is nested in, which makes the list a tree: parents always
+ * come before their children. An {@code ArrayList} would spend a reference per loop plus its
+ * own header and spare capacity, which adds up over millions of reports. Loops are only ever
+ * appended, so indexes stay valid while the method is being visited.
+ */
+class LoopList extends AbstractList<LoopGrowth> implements RandomAccess {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final LoopGrowth[] GROWTHS = LoopGrowth.values();
+
+    private byte[] growths = EMPTY;
+    // Null while every loop is at the top level of the method, as most are
+    private int[] parents;
+    private int size;
+
+    @Override
+    public LoopGrowth get(int index) {
+        return GROWTHS[growths[checkIndex(index)]];
+    }
+
+    @Override
+    public LoopGrowth set(int index, LoopGrowth growth) {
+        LoopGrowth old = get(index);
+        growths[index] = (byte) growth.ordinal();
+        return old;
+    }
+
+    /** Appends a top-level loop; loops can only be added at the end. */
+    @Override
+    public void add(int index, LoopGrowth growth) {
+        if (index != size) throw new UnsupportedOperationException("loops are append-only");
+        add(growth, -1);
+    }
+
+    /** Appends a loop nested directly in loop {@code parent} (-1 for none), returning its index. */
+    int add(LoopGrowth growth, int parent) {
+        if (parent >= size) throw new IndexOutOfBoundsException(parent);
+        if (size == growths.length) {
+            growths = Arrays.copyOf(growths, Math.max(4, size * 2));
+            if (parents != null) parents = Arrays.copyOf(parents, growths.length);
+        }
+        if (parent >= 0 && parents == null) {
+            parents = new int[growths.length];
+            Arrays.fill(parents, 0, size, -1);
+        }
+        growths[size] = (byte) growth.ordinal();
+        if (parents != null) parents[size] = parent;
+        modCount++;
+        return size++;
+    }
+
+    /** Index of the loop that loop {@code index} is nested in, or -1 for a top-level loop. */
+    int parent(int index) {
+        checkIndex(index);
+        return parents == null ? -1 : parents[index];
+    }
+
+    /** Appends the loops of {@code other}, keeping their nesting among themselves. */
+    void append(LoopList other) {
+        int offset = size;
+        for (int i = 0; i < other.size; i++) {
+            int parent = other.parent(i);
+            add(other.get(i), parent < 0 ? -1 : parent + offset);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Drops spare capacity once the method has been fully visited. */
+    void trim() {
+        if (growths.length != size) growths = size == 0 ? EMPTY : Arrays.copyOf(growths, size);
+        if (parents != null && parents.length != size) parents = Arrays.copyOf(parents, size);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return index;
+    }
+}
@@ -1,9 +1,26 @@
-import com.github.javaparser.StaticJavaParser;
-import com.github.javaparser.ast.CompilationUnit;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length > 0 && args[0].equals("--watch")) {
+            List<Path> roots = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                roots.add(Paths.get(args[i]));
+            }
+            WatchMode.run(roots);
+            return;
+        }
+
+        if (args.length > 0) {
+            RepositoryScan.run(args);
+            return;
+        }
 
         String code = """
             public class Test {
@@ -29,14 +46,13 @@ public class Main {
         """;
 
         try {
-            CompilationUnit cu = StaticJavaParser.parse(code);
-
-            ComplexityVisitor visitor = new ComplexityVisitor();
-            visitor.visit(cu, null);
-
-            for (MethodReport r : visitor.getReports()) {
+            Budget budget = Budget.unlimited();
+            for (MethodReport r : Analyzer.analyze(code, budget)) {
                 printReport(r);
             }
+            if (budget.truncated()) {
+                System.out.println("Partial results: " + budget.truncation());
+            }
 
             printLimitations();
 
@@ -47,15 +63,17 @@ public class Main {
 
     private static void printReport(MethodReport r) {
         System.out.println("================================");
-        System.out.println("Method: " + r.name);
+        System.out.println("Method: " + r.signature);
 
-        String time = estimateTime(r);
+        String time = Complexity.time(r);
         String space = r.isRecursive ? "O(n)" : "O(1)";
 
         System.out.println("Time Complexity: " + time);
         System.out.println("Space Complexity: " + space);
 
-        if (r.isRecursive) {
+        if (r.recursionGroup != null && r.recursionGroup.size() > 1) {
+            System.out.println("Reason: Mutual recursion between " + String.join(", ", r.recursionGroup) + ".");
+        } else if (r.isRecursive) {
             System.out.println("Reason: Recursive calls detected.");
         }
 
@@ -67,38 +85,6 @@ public class Main {
         System.out.println("================================\n");
     }
 
-    private static String estimateTime(MethodReport r) {
-        if (r.loops.isEmpty() && !r.isRecursive) return "O(1)";
-        if (r.loops.isEmpty()) return "O(n)";
-
-        // Only multiply loops up to the max nesting depth
-        StringBuilder sb = new StringBuilder("O(");
-        boolean first = true;
-        
-        int nestedCount = 0;
-        for (LoopGrowth g : r.loops) {
-            nestedCount++;
-            if (nestedCount > r.maxNestedLoopDepth) {
-                // Sequential loop - add instead of multiply
-                sb.append(" + ");
-            } else if (!first) {
-                // Nested loop - multiply
-                sb.append(" * ");
-            }
-            first = false;
-
-            switch (g) {
-                case CONSTANT -> sb.append("1");
-                case LINEAR -> sb.append("n");
-                case LOGARITHMIC -> sb.append("log n");
-                default -> sb.append("?");
-            }
-        }
-
-        sb.append(")");
-        return sb.toString();
-    }
-
     private static void printLimitations() {
         System.out.println("Analysis Features:");
         System.out.println("✓ Detects direct and mutual recursion");
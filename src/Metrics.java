@@ -0,0 +1,276 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms, exported in the Prometheus text format at
+ * {@code /metrics}. Recording only touches {@link LongAdder}s, so the hot path takes no locks
+ * and threads rarely contend on the same cell.
+ */
+class Metrics {
+
+    static final Histogram QUEUE_WAIT = new Histogram("queue_wait");
+    static final Histogram BODY_READ = new Histogram("body_read");
+    static final Histogram PARSE = new Histogram("parse");
+    static final Histogram VISIT = new Histogram("visit");
+    static final Histogram RECURSION = new Histogram("recursion");
+    static final Histogram SERIALIZE = new Histogram("serialize");
+    private static final Histogram[] STAGES = {QUEUE_WAIT, BODY_READ, PARSE, VISIT, RECURSION, SERIALIZE};
+    // The stages an analysis goes through outside of HTTP handling
+    private static final Histogram[] ANALYSIS_STAGES = {PARSE, VISIT, RECURSION, SERIALIZE};
+
+    static final LongAdder METHODS = new LongAdder();
+    static final LongAdder ANALYSIS_FAILURES = new LongAdder();
+    static final LongAdder MEMORY_CACHE_HITS = new LongAdder();
+    static final LongAdder DISK_CACHE_HITS = new LongAdder();
+    static final LongAdder CACHE_MISSES = new LongAdder();
+
+    private static final List<Endpoint> ENDPOINTS = new CopyOnWriteArrayList<>();
+
+    private Metrics() {
+    }
+
+    /** Clears the analysis stage histograms and counters, e.g. of work done by {@link Warmup}. */
+    static void resetAnalysisStages() {
+        for (Histogram h : ANALYSIS_STAGES) {
+            h.reset();
+        }
+        METHODS.reset();
+        ANALYSIS_FAILURES.reset();
+    }
+
+    /**
+     * Latency histogram with fixed buckets from 50us to 10s. Buckets are counted separately
+     * and only made cumulative when exported.
+     */
+    static class Histogram {
+        private static final double[] BOUNDS = {
+                0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01,
+                0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+        private static final long[] BOUND_NANOS = new long[BOUNDS.length];
+
+        static {
+            for (int i = 0; i < BOUNDS.length; i++) {
+                BOUND_NANOS[i] = (long) (BOUNDS[i] * 1e9);
+            }
+        }
+
+        final String stage;
+        private final LongAdder[] counts = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(String stage) {
+            this.stage = stage;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void observe(long nanos) {
+            int i = 0;
+            while (i < BOUND_NANOS.length && nanos > BOUND_NANOS[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        void reset() {
+            for (LongAdder count : counts) {
+                count.reset();
+            }
+            sumNanos.reset();
+        }
+
+        /** Records the time elapsed since {@code startNanos} and returns the current time. */
+        long since(long startNanos) {
+            long now = System.nanoTime();
+            observe(now - startNanos);
+            return now;
+        }
+
+        private void write(StringBuilder out, String name) {
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i].sum();
+                String le = i < BOUNDS.length ? format(BOUNDS[i]) : "+Inf";
+                out.append(name).append("_bucket{stage=\"").append(stage).append("\",le=\"").append(le)
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum{stage=\"").append(stage).append("\"} ")
+                    .append(format(sumNanos.sum() / 1e9)).append('\n');
+            out.append(name).append("_count{stage=\"").append(stage).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+    }
+
+    /** Per-context request, error and byte counters, filled in by {@link #filter}. */
+    private static class Endpoint {
+        final String path;
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Counts requests, error responses (status 400 and up) and bytes on the wire for the
+     * context at {@code path}. Install it before any filter that may answer on its own.
+     */
+    static Filter filter(String path) {
+        Endpoint endpoint = new Endpoint(path);
+        ENDPOINTS.add(endpoint);
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                endpoint.requests.increment();
+                exchange.setStreams(new CountingInputStream(exchange.getRequestBody(), endpoint.bytesIn),
+                        new CountingOutputStream(exchange.getResponseBody(), endpoint.bytesOut));
+                try {
+                    chain.doFilter(exchange);
+                } finally {
+                    if (exchange.getResponseCode() >= 400 || exchange.getResponseCode() < 0) {
+                        endpoint.errors.increment();
+                    }
+                }
+            }
+
+            @Override
+            public String description() {
+                return "Counts requests, errors and bytes for " + path;
+            }
+        };
+    }
+
+    /** Serves the current values; {@code admission} supplies the in-flight gauge. */
+    static HttpHandler handler(AdmissionControl admission) {
+        return exchange -> {
+            byte[] response = render(admission).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=UTF-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        };
+    }
+
+    static String render(AdmissionControl admission) {
+        StringBuilder out = new StringBuilder(8192);
+
+        header(out, "analyzer_stage_duration_seconds", "histogram",
+                "Time spent in each stage of an analysis request");
+        for (Histogram h : STAGES) {
+            h.write(out, "analyzer_stage_duration_seconds");
+        }
+
+        header(out, "analyzer_requests_total", "counter", "HTTP requests received");
+        for (Endpoint e : ENDPOINTS) {
+            sample(out, "analyzer_requests_total", e.path, e.requests.sum());
+        }
+        header(out, "analyzer_errors_total", "counter", "HTTP responses with status 400 or above");
+        for (Endpoint e : ENDPOINTS) {
+            sample(out, "analyzer_errors_total", e.path, e.errors.sum());
+        }
+        header(out, "analyzer_request_bytes_total", "counter", "Request body bytes received, as sent");
+        for (Endpoint e : ENDPOINTS) {
+            sample(out, "analyzer_request_bytes_total", e.path, e.bytesIn.sum());
+        }
+        header(out, "analyzer_response_bytes_total", "counter", "Response body bytes sent, after compression");
+        for (Endpoint e : ENDPOINTS) {
+            sample(out, "analyzer_response_bytes_total", e.path, e.bytesOut.sum());
+        }
+
+        header(out, "analyzer_methods_total", "counter", "Methods analyzed");
+        out.append("analyzer_methods_total ").append(METHODS.sum()).append('\n');
+        header(out, "analyzer_analysis_failures_total", "counter", "Sources that failed to parse or analyze");
+        out.append("analyzer_analysis_failures_total ").append(ANALYSIS_FAILURES.sum()).append('\n');
+
+        long memory = MEMORY_CACHE_HITS.sum();
+        long disk = DISK_CACHE_HITS.sum();
+        long misses = CACHE_MISSES.sum();
+        header(out, "analyzer_cache_hits_total", "counter", "/analyze results served from a cache");
+        out.append("analyzer_cache_hits_total{cache=\"memory\"} ").append(memory).append('\n');
+        out.append("analyzer_cache_hits_total{cache=\"disk\"} ").append(disk).append('\n');
+        header(out, "analyzer_cache_misses_total", "counter", "/analyze results computed afresh");
+        out.append("analyzer_cache_misses_total ").append(misses).append('\n');
+        header(out, "analyzer_cache_hit_ratio", "gauge", "Share of /analyze lookups served from a cache");
+        long lookups = memory + disk + misses;
+        out.append("analyzer_cache_hit_ratio ")
+                .append(format(lookups == 0 ? 0 : (double) (memory + disk) / lookups)).append('\n');
+
+        header(out, "analyzer_in_flight", "gauge", "Requests, and batch and job files, running or waiting for a worker");
+        out.append("analyzer_in_flight ").append(admission.inFlight()).append('\n');
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String path, long value) {
+        out.append(name).append("{path=\"").append(path).append("\"} ").append(value).append('\n');
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final LongAdder count;
+
+        CountingInputStream(InputStream in, LongAdder count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count.add(n);
+            return n;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final LongAdder count;
+
+        CountingOutputStream(OutputStream out, LongAdder count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count.add(len);
+        }
+    }
+}
@@ -0,0 +1,735 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selector-based HTTP/1.1 front end serving the same {@code /} and {@code /analyze} contract
+ * as {@link CodeAnalyzerServer}, for {@code -Danalyzer.frontEnd=nio}.
+ *
+ * Each of {@code analyzer.selectors} loops runs on its own thread, accepts connections from
+ * the shared listening socket and does all reading, parsing and writing for the connections
+ * it accepted. Analyses run on the same worker pool and admission limit as the default
+ * front end, so a selector thread never parses Java. Connections are persistent unless the
+ * client asks otherwise and may pipeline: requests are answered one at a time, in order,
+ * and the next one is parsed from what is already buffered once the previous answer is
+ * queued. Reads and writes go through direct buffers pooled per loop, which a connection
+ * only holds while it has unread input or unsent output, so idle connections cost no buffer.
+ *
+ * Responses are built in full and sent with a Content-Length; request bodies must have a
+ * Content-Length too (chunked ones get {@code 411}). Content-Encoding, ETag revalidation,
+ * gzipped responses and the result caches work as they do in {@link CodeAnalyzerServer}.
+ */
+class NioServer implements Closeable {
+
+    // Size of every pooled buffer, and so the largest request head accepted
+    private static final int BUFFER_BYTES = 16 * 1024;
+    // Idle buffers each loop keeps for reuse
+    private static final int POOLED_BUFFERS = 256;
+    // Connections idle this long with nothing in progress are closed, as by the JDK server
+    private static final long IDLE_MILLIS = 30_000;
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private final ExecutorService workers;
+    private final int limit;
+    private final AtomicInteger admitted = new AtomicInteger();
+    // Declared body bytes of requests being received or analyzed, bounded by BODY_BUFFER_BYTES
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private final CodeAnalyzerServer.StaticFileHandler page = new CodeAnalyzerServer.StaticFileHandler();
+    private final CodeAnalyzerServer.AnalyzeHandler analyzer;
+    private volatile boolean running = true;
+
+    private NioServer(int port, int selectors, DiskCache diskCache) throws IOException {
+        this.analyzer = new CodeAnalyzerServer.AnalyzeHandler(diskCache);
+        this.workers = AdmissionControl.workersFromConfig();
+        this.limit = ServerConfig.THREADS + ServerConfig.QUEUE_DEPTH;
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        this.loops = new Loop[Math.max(1, selectors)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new Loop(i);
+        }
+    }
+
+    /** Starts the front end on {@code port} (0 for any free port, see {@link #port()}). */
+    static NioServer start(int port) throws IOException {
+        NioServer nio = new NioServer(port, ServerConfig.SELECTORS, CodeAnalyzerServer.openDiskCache());
+        for (Loop loop : nio.loops) {
+            loop.thread.start();
+        }
+        return nio;
+    }
+
+    int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (Loop loop : loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        server.close();
+        workers.shutdown();
+    }
+
+    /** Direct buffers of {@link #BUFFER_BYTES}, reused by the connections of one loop. */
+    private static class BufferPool {
+        private final ArrayDeque<ByteBuffer> idle = new ArrayDeque<>();
+
+        ByteBuffer take() {
+            ByteBuffer buffer = idle.poll();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+
+        void give(ByteBuffer buffer) {
+            if (idle.size() < POOLED_BUFFERS) idle.push(buffer.clear());
+        }
+    }
+
+    private static class Request {
+        String method;
+        String path;
+        // Lower-case names; repeated headers are joined with ", "
+        final Map<String, String> headers = new HashMap<>();
+        boolean keepAlive;
+        // Grows as the body arrives, up to its declared length
+        byte[] body = EMPTY;
+        int length;
+        int received;
+        // Share of bodyBytes held for this request until it is answered
+        long reserved;
+
+        String header(String name) {
+            return headers.get(name);
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        byte[] body = EMPTY;
+
+        Response(int status) {
+            this.status = status;
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        Response body(String contentType, byte[] body) {
+            headers.put("Content-Type", contentType);
+            this.body = body;
+            return this;
+        }
+
+        static Response json(int status, String json) {
+            return new Response(status).body("application/json; charset=UTF-8", json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Response text(int status, String text) {
+            return new Response(status).body("text/plain; charset=UTF-8", text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** One selector thread and the connections it accepted. */
+    private class Loop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final BufferPool pool = new BufferPool();
+        // Work handed back by analysis threads, run on this loop's thread
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        Loop(int index) throws IOException {
+            selector = Selector.open();
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            thread = Thread.ofPlatform().name("nio-loop-" + index).unstarted(this);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            while (running) {
+                try {
+                    selector.select(1000);
+                } catch (IOException e) {
+                    System.err.println(thread.getName() + ": " + e);
+                    continue;
+                }
+                for (Runnable task; (task = tasks.poll()) != null; ) {
+                    task.run();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else if (key.attachment() instanceof Connection c) {
+                        try {
+                            c.ready(key);
+                        } catch (RuntimeException e) {
+                            // A bug in handling one connection must not take the loop's others with it
+                            System.err.println(thread.getName() + ": connection failed: " + e);
+                            c.close();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= 1000) {
+                    lastSweep = now;
+                    for (SelectionKey key : selector.keys()) {
+                        if (key.attachment() instanceof Connection c && c.idleSince(now - IDLE_MILLIS)) c.close();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection c) c.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // Shutting down anyway
+            }
+        }
+
+        private void accept() {
+            try {
+                // Every loop is told about a new connection; all but one find nothing to accept
+                SocketChannel channel = server.accept();
+                if (channel == null) return;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection c = new Connection(this, channel);
+                c.key = channel.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException e) {
+                System.err.println(thread.getName() + ": accept failed: " + e);
+            }
+        }
+    }
+
+    /** State of one client connection; only touched on its loop's thread. */
+    private class Connection {
+        final Loop loop;
+        final SocketChannel channel;
+        SelectionKey key;
+
+        // Received and not yet consumed, in write mode; null while there is none
+        ByteBuffer in;
+        // Bytes of the input already searched for the end of the request head
+        int scanned;
+        // Head parsed, body still arriving
+        Request request;
+        // A request is with the workers; nothing more is read or parsed until it is answered
+        boolean busy;
+
+        // Being written, in read mode; null while there is nothing to send
+        ByteBuffer out;
+        final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+        int pendingOffset;
+
+        // The client has shut down its side; what is buffered is still answered
+        boolean eof;
+        boolean closeAfterWrite;
+        boolean closed;
+        long lastActive = System.currentTimeMillis();
+
+        Connection(Loop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        boolean idleSince(long time) {
+            return !busy && lastActive < time;
+        }
+
+        void ready(SelectionKey key) {
+            try {
+                if (key.isValid() && key.isReadable()) read();
+                if (key.isValid() && key.isWritable()) write();
+            } catch (IOException e) {
+                // The client went away
+                close();
+            }
+        }
+
+        private void read() throws IOException {
+            if (in == null) in = loop.pool.take();
+            if (channel.read(in) < 0) eof = true;
+            lastActive = System.currentTimeMillis();
+            process();
+        }
+
+        /** Parses and dispatches buffered requests until one has to wait for a worker or more input. */
+        private void process() throws IOException {
+            while (!closed && !busy && !closeAfterWrite) {
+                if (request == null) {
+                    if (in == null || in.position() == 0) break;
+                    request = parseHead();
+                    if (request == null) {
+                        // A malformed head was answered, and the connection may be closed already
+                        if (!closeAfterWrite && !in.hasRemaining()) reject(431, "Request header fields too large");
+                        break;
+                    }
+                    if (!admitBody(request)) {
+                        request = null;
+                        break;
+                    }
+                }
+                if (!receiveBody(request)) break;
+                Request complete = request;
+                request = null;
+                dispatch(complete);
+            }
+            if (closed) return;
+            if (in != null && in.position() == 0) {
+                loop.pool.give(in);
+                in = null;
+                scanned = 0;
+            }
+            if (eof && !busy) {
+                // Whatever is left is an incomplete request that can never finish
+                closeAfterWrite = true;
+                if (out == null && pending.isEmpty()) {
+                    close();
+                    return;
+                }
+            }
+            updateInterest();
+        }
+
+        /** Takes one request head off the input, or returns null if it has not all arrived. */
+        private Request parseHead() throws IOException {
+            int end = -1;
+            for (int i = Math.max(3, scanned); i < in.position(); i++) {
+                if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+                    end = i + 1;
+                    break;
+                }
+            }
+            if (end < 0) {
+                scanned = in.position();
+                return null;
+            }
+            byte[] head = new byte[end];
+            in.get(0, head);
+            in.flip().position(end);
+            in.compact();
+            scanned = 0;
+
+            String[] lines = new String(head, 0, end - 4, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                reject(400, "Malformed request line");
+                return null;
+            }
+            Request r = new Request();
+            r.method = requestLine[0];
+            int query = requestLine[1].indexOf('?');
+            r.path = query < 0 ? requestLine[1] : requestLine[1].substring(0, query);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) continue;
+                String name = lines[i].substring(0, colon).trim().toLowerCase();
+                r.headers.merge(name, lines[i].substring(colon + 1).trim(), (a, b) -> a + ", " + b);
+            }
+            String connection = r.header("connection");
+            r.keepAlive = requestLine[2].equals("HTTP/1.1")
+                    ? !"close".equalsIgnoreCase(connection)
+                    : "keep-alive".equalsIgnoreCase(connection);
+            return r;
+        }
+
+        /** Checks the declared body and sizes its array; answers and returns false if it cannot be taken. */
+        private boolean admitBody(Request r) throws IOException {
+            if (r.header("transfer-encoding") != null) {
+                reject(411, "Chunked request bodies are not supported; send a Content-Length");
+                return false;
+            }
+            long length = 0;
+            String header = r.header("content-length");
+            if (header != null) {
+                try {
+                    length = Long.parseLong(header);
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+            }
+            if (length < 0) {
+                reject(400, "Invalid Content-Length");
+                return false;
+            }
+            if (length > ServerConfig.MAX_BODY_BYTES) {
+                // The body is not read, so the connection cannot be reused
+                send(Response.json(413, ReportJson.error(new RequestBody.TooLargeException(ServerConfig.MAX_BODY_BYTES))), false);
+                return false;
+            }
+            if (length > 0 && bodyBytes.addAndGet(length) > ServerConfig.BODY_BUFFER_BYTES) {
+                // Too many bodies in flight: turn this one away unread rather than risk the heap
+                bodyBytes.addAndGet(-length);
+                send(Response.json(503, AdmissionControl.BUSY)
+                        .header("Retry-After", String.valueOf(ServerConfig.RETRY_AFTER_SECONDS)), false);
+                return false;
+            }
+            r.reserved = length;
+            r.length = (int) length;
+            // Start small, so a client that declares a large body and sends nothing holds little
+            r.body = length == 0 ? EMPTY : new byte[(int) Math.min(length, BUFFER_BYTES)];
+            if (length > in.position() && "100-continue".equalsIgnoreCase(r.header("expect"))) {
+                pending.add(CONTINUE);
+                write();
+            }
+            return true;
+        }
+
+        /** Moves buffered body bytes into the request; true once the whole body is there. */
+        private boolean receiveBody(Request r) {
+            int n = Math.min(r.length - r.received, in == null ? 0 : in.position());
+            if (n > 0) {
+                if (r.received + n > r.body.length) {
+                    r.body = Arrays.copyOf(r.body, (int) Math.min(r.length, Math.max(r.received + n, 2L * r.body.length)));
+                }
+                in.flip().get(r.body, r.received, n);
+                in.compact();
+                r.received += n;
+            }
+            return r.received == r.length;
+        }
+
+        private void dispatch(Request r) throws IOException {
+            if (!r.path.equals("/analyze") || !r.method.equals("POST")) {
+                // Only analyses keep their bodies
+                release(r);
+            }
+            switch (r.path) {
+                case "/", "/index.html" -> send(page(r), r.keepAlive);
+                case "/analyze" -> {
+                    if (!r.method.equals("POST")) {
+                        send(Response.text(405, "Method Not Allowed").header("Allow", "POST"), r.keepAlive);
+                    } else if (admitted.incrementAndGet() > limit) {
+                        admitted.decrementAndGet();
+                        release(r);
+                        send(Response.json(503, AdmissionControl.BUSY)
+                                .header("Retry-After", String.valueOf(ServerConfig.RETRY_AFTER_SECONDS)), r.keepAlive);
+                    } else {
+                        submit(r);
+                    }
+                }
+                default -> send(Response.text(404, "Not Found"), r.keepAlive);
+            }
+        }
+
+        private void submit(Request r) {
+            busy = true;
+            long queued = System.nanoTime();
+            try {
+                workers.execute(() -> {
+                    Response response = null;
+                    try {
+                        Metrics.QUEUE_WAIT.since(queued);
+                        response = analyze(r);
+                    } catch (Throwable e) {
+                        // Including OutOfMemoryError: the client gets an answer and the connection is freed
+                        response = Response.json(500, ReportJson.error(e));
+                    } finally {
+                        admitted.decrementAndGet();
+                        release(r);
+                        // Null only if even the 500 could not be built; finish then just closes
+                        Response answer = response;
+                        loop.execute(() -> finish(answer, r.keepAlive));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                admitted.decrementAndGet();
+                release(r);
+                busy = false;
+                closeAfterWrite = true;
+            }
+        }
+
+        private void finish(Response response, boolean keepAlive) {
+            if (closed) return;
+            busy = false;
+            if (response == null) {
+                close();
+                return;
+            }
+            try {
+                send(response, keepAlive);
+                process();
+            } catch (IOException e) {
+                close();
+            } catch (RuntimeException e) {
+                System.err.println(loop.thread.getName() + ": connection failed: " + e);
+                close();
+            }
+        }
+
+        /** Queues {@code response} and writes as much of it as the socket takes. */
+        private void send(Response response, boolean keepAlive) throws IOException {
+            StringBuilder head = new StringBuilder(256)
+                    .append("HTTP/1.1 ").append(response.status).append(' ').append(reason(response.status)).append("\r\n");
+            for (Map.Entry<String, String> h : response.headers.entrySet()) {
+                head.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+            }
+            // A HEAD answer sets its own, for the body it leaves out
+            if (response.status != 304 && !response.headers.containsKey("Content-Length")) {
+                head.append("Content-Length: ").append(response.body.length).append("\r\n");
+            }
+            if (!keepAlive) {
+                head.append("Connection: close\r\n");
+                closeAfterWrite = true;
+            }
+            pending.add(head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (response.body.length > 0) pending.add(response.body);
+            write();
+        }
+
+        private void write() throws IOException {
+            while (true) {
+                if (out == null) {
+                    if (pending.isEmpty()) break;
+                    out = loop.pool.take().limit(0);
+                }
+                if (!out.hasRemaining()) {
+                    out.clear();
+                    while (out.hasRemaining() && !pending.isEmpty()) {
+                        byte[] chunk = pending.peek();
+                        int n = Math.min(out.remaining(), chunk.length - pendingOffset);
+                        out.put(chunk, pendingOffset, n);
+                        pendingOffset += n;
+                        if (pendingOffset == chunk.length) {
+                            pending.poll();
+                            pendingOffset = 0;
+                        }
+                    }
+                    out.flip();
+                    if (!out.hasRemaining()) {
+                        loop.pool.give(out);
+                        out = null;
+                        break;
+                    }
+                }
+                channel.write(out);
+                lastActive = System.currentTimeMillis();
+                // The socket is full; carry on when it is writable again
+                if (out.hasRemaining()) break;
+            }
+            if (out == null && pending.isEmpty() && closeAfterWrite && !busy) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (closed) return;
+            int ops = 0;
+            if (!busy && !closeAfterWrite && !eof) ops |= SelectionKey.OP_READ;
+            if (out != null || !pending.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+
+        /** Answers a request that cannot be read any further and closes once that is sent. */
+        private void reject(int status, String message) throws IOException {
+            send(Response.text(status, message), false);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            // A body still arriving; one with the workers is released when they finish
+            if (request != null) release(request);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing more to send on it either way
+            }
+            if (in != null) loop.pool.give(in);
+            if (out != null) loop.pool.give(out);
+            in = null;
+            out = null;
+            pending.clear();
+        }
+    }
+
+    private void release(Request r) {
+        if (r.reserved > 0) {
+            bodyBytes.addAndGet(-r.reserved);
+            r.reserved = 0;
+        }
+    }
+
+    /** The UI page, as {@link CodeAnalyzerServer.StaticFileHandler} serves it. */
+    private Response page(Request r) {
+        boolean head = r.method.equals("HEAD");
+        if (!r.method.equals("GET") && !head) {
+            return Response.text(405, "Method Not Allowed").header("Allow", "GET, HEAD");
+        }
+        boolean gzip = Compression.acceptsGzip(r.header("accept-encoding"));
+        String tag = gzip ? page.gzippedEtag : page.etag;
+        Response response = new Response(200)
+                .header("ETag", tag)
+                .header("Cache-Control", "public, max-age=86400")
+                .header("Vary", "Accept-Encoding");
+        if (ResultCache.matches(r.header("if-none-match"), tag)) {
+            return withStatus(304, response);
+        }
+        byte[] body = gzip ? page.gzippedPage : page.page;
+        if (gzip) response.header("Content-Encoding", "gzip");
+        if (head) {
+            response.header("Content-Type", "text/html; charset=UTF-8");
+            return response.header("Content-Length", String.valueOf(body.length));
+        }
+        return response.body("text/html; charset=UTF-8", body);
+    }
+
+    /**
+     * {@code POST /analyze} on a worker thread, as {@link CodeAnalyzerServer.AnalyzeHandler}
+     * answers it, except that a fresh result is built in full before it is sent.
+     */
+    private Response analyze(Request r) {
+        Budget budget = Budget.fromConfig();
+        byte[] body;
+        try {
+            body = decode(r);
+        } catch (RequestBody.TooLargeException e) {
+            return Response.json(413, ReportJson.error(e));
+        } catch (Compression.UnsupportedEncodingException e) {
+            return Response.json(415, ReportJson.error(e));
+        } catch (IOException e) {
+            // A corrupt or truncated compressed body
+            return Response.json(400, ReportJson.error(e));
+        }
+        String key = ResultCache.key(body);
+        String etag = "\"" + key + "\"";
+        Response response = new Response(200)
+                .header("ETag", etag)
+                .header("Vary", "Accept-Encoding")
+                .header("Access-Control-Allow-Origin", "*");
+
+        String ifNoneMatch = r.header("if-none-match");
+        boolean gzipMatch = ResultCache.lists(ifNoneMatch, Compression.gzipEtag(etag));
+        if (gzipMatch || ResultCache.lists(ifNoneMatch, etag)) {
+            if (gzipMatch) response.header("ETag", Compression.gzipEtag(etag));
+            return withStatus(304, response);
+        }
+
+        byte[] json = analyzer.cached(key);
+        if (json == null) {
+            Collection<MethodReport> reports = null;
+            Exception failure = null;
+            try {
+                reports = Analyzer.analyze(body, budget);
+            } catch (Exception e) {
+                Metrics.ANALYSIS_FAILURES.increment();
+                failure = e;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+                if (failure != null) {
+                    out.append(ReportJson.error(failure));
+                } else {
+                    ReportJson.writeAnalysis(out, reports, budget);
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            json = bytes.toByteArray();
+            if (budget.truncated()) {
+                // Partial results depend on timing, so they must not be revalidated or cached
+                response.headers.remove("ETag");
+                response.header("Cache-Control", "no-store");
+            } else if (json.length <= ServerConfig.CACHE_MAX_ENTRY_BYTES) {
+                json = analyzer.store(key, json);
+            }
+        }
+
+        // Cached responses large enough to be sent gzipped are kept gzipped
+        boolean gzip = ServerConfig.COMPRESSION_LEVEL > 0 && Compression.acceptsGzip(r.header("accept-encoding"));
+        if (Compression.isGzip(json) && !gzip) {
+            json = Compression.gunzip(json);
+        } else if (!Compression.isGzip(json) && gzip && json.length > ServerConfig.COMPRESSION_MIN_BYTES) {
+            json = Compression.gzip(json, ServerConfig.COMPRESSION_LEVEL);
+        }
+        if (Compression.isGzip(json)) {
+            response.header("Content-Encoding", "gzip");
+            if (response.headers.containsKey("ETag")) response.header("ETag", Compression.gzipEtag(etag));
+        }
+        return response.body("application/json; charset=UTF-8", json);
+    }
+
+    private static byte[] decode(Request r) throws IOException {
+        String encoding = r.header("content-encoding");
+        if (encoding == null || encoding.isBlank() || encoding.trim().equalsIgnoreCase("identity")) return r.body;
+        return RequestBody.read(Compression.decode(new ByteArrayInputStream(r.body), encoding),
+                8192, ServerConfig.MAX_BODY_BYTES);
+    }
+
+    private static Response withStatus(int status, Response from) {
+        Response response = new Response(status);
+        response.headers.putAll(from.headers);
+        return response;
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 411 -> "Length Required";
+            case 413 -> "Payload Too Large";
+            case 415 -> "Unsupported Media Type";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            default -> "Error";
+        };
+    }
+}
@@ -0,0 +1,107 @@
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.EnumDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs {@link ComplexityVisitor} over one compilation unit, splitting it across fork/join
+ * tasks when it is large. The unit is cut at member declarations (methods, constructors,
+ * fields, initializers and enum constants of every type, nested member types included), the
+ * points where the visitor carries no state from one to the next. Each task visits a run of
+ * members with its own visitor and a {@link Budget#fork} of the budget, and the visitors are
+ * merged back left to right, so the result is the same as a single visitor walking the file.
+ *
+ * Tasks run in the caller's pool when called from a fork/join worker (as in
+ * {@code /analyze/batch}), otherwise in the common pool.
+ */
+class ParallelAnalysis {
+
+    // Members visited by one task; below this, splitting costs more than it saves
+    private static final int LEAF_MEMBERS = 32;
+
+    private ParallelAnalysis() {
+    }
+
+    /**
+     * Visits {@code cu} within {@code budget}, in parallel if it has at least
+     * {@link ServerConfig#PARALLEL_MIN_MEMBERS} members. If the budget runs out, the returned
+     * visitor holds the methods completed so far.
+     */
+    static ComplexityVisitor visit(CompilationUnit cu, Budget budget) {
+        List<Node> members = new ArrayList<>();
+        for (TypeDeclaration<?> type : cu.getTypes()) {
+            collect(type, members);
+        }
+
+        int threshold = ServerConfig.PARALLEL_MIN_MEMBERS;
+        if (threshold <= 0 || members.size() < threshold || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            ComplexityVisitor visitor = new ComplexityVisitor(budget);
+            visit(visitor, cu, budget);
+            return visitor;
+        }
+        return new Task(members, 0, members.size(), budget).invoke();
+    }
+
+    private static void collect(TypeDeclaration<?> type, List<Node> members) {
+        if (type instanceof EnumDeclaration e) {
+            // Constants come first in the source and may have bodies with methods
+            members.addAll(e.getEntries());
+        }
+        for (BodyDeclaration<?> member : type.getMembers()) {
+            if (member instanceof TypeDeclaration<?> nested) {
+                collect(nested, members);
+            } else {
+                members.add(member);
+            }
+        }
+    }
+
+    private static void visit(ComplexityVisitor visitor, Node node, Budget budget) {
+        try {
+            node.accept(visitor, null);
+        } catch (Budget.Exhausted e) {
+            // Reason already recorded; keep the methods visited so far
+        } catch (StackOverflowError e) {
+            budget.exhaust("nesting too deep to analyze");
+        }
+    }
+
+    private static class Task extends RecursiveTask<ComplexityVisitor> {
+        private final List<Node> members;
+        private final int from;
+        private final int to;
+        private final Budget budget;
+
+        Task(List<Node> members, int from, int to, Budget budget) {
+            this.members = members;
+            this.from = from;
+            this.to = to;
+            this.budget = budget;
+        }
+
+        @Override
+        protected ComplexityVisitor compute() {
+            if (to - from <= LEAF_MEMBERS) {
+                Budget own = budget.fork();
+                ComplexityVisitor visitor = new ComplexityVisitor(own);
+                for (int i = from; i < to && !budget.truncated(); i++) {
+                    visit(visitor, members.get(i), own);
+                }
+                return visitor;
+            }
+
+            int mid = (from + to) >>> 1;
+            Task right = new Task(members, mid, to, budget);
+            right.fork();
+            ComplexityVisitor left = new Task(members, from, mid, budget).compute();
+            left.merge(right.join());
+            return left;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A chain of stages joined by bounded queues. The first stage produces items on one thread;
+ * every later stage takes items from its input queue on its own fixed number of threads and
+ * passes what it returns to the next stage's queue. A full queue blocks the stage feeding it,
+ * so a slow stage holds back everything upstream of it instead of letting work pile up in
+ * memory.
+ *
+ * Each stage counts the items it handled, the time its threads spent working and the time
+ * they spent blocked on a full downstream queue, and samples the length of its input queue
+ * each time it takes an item; see {@link #printStats}.
+ *
+ * <pre>
+ * Pipeline.from("discover", out -> walk(root, out))
+ *         .then("read", 2, 64, this::read)
+ *         .then("parse", 8, 64, this::parse)
+ *         .run();
+ * </pre>
+ */
+class Pipeline {
+
+    /** Produces the items of the first stage, handing each to {@code out}. */
+    interface Source<T> {
+        void produce(Sink<T> out) throws Exception;
+    }
+
+    /** Accepts items, blocking while the next stage's queue is full. */
+    interface Sink<T> {
+        void accept(T item) throws InterruptedException;
+    }
+
+    /** The work of one stage on one item; returning {@code null} drops the item. */
+    interface Step<I, O> {
+        O apply(I item) throws Exception;
+    }
+
+    // Tells a worker that no more items will come
+    private static final Object END = new Object();
+
+    /** Typed view used while the stages are chained together. */
+    static class Builder<T> {
+        private final Pipeline pipeline;
+
+        private Builder(Pipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        /** Adds a stage of {@code threads} workers, fed by a queue of {@code capacity} items. */
+        @SuppressWarnings("unchecked")
+        <O> Builder<O> then(String name, int threads, int capacity, Step<? super T, ? extends O> step) {
+            Stage stage = new Stage(name, threads, new ArrayBlockingQueue<>(capacity), (Step<Object, Object>) step);
+            pipeline.stages.get(pipeline.stages.size() - 1).next = stage;
+            pipeline.stages.add(stage);
+            return new Builder<>(pipeline);
+        }
+
+        void run() throws InterruptedException {
+            pipeline.run();
+        }
+
+        Pipeline pipeline() {
+            return pipeline;
+        }
+    }
+
+    private static class Stage {
+        final String name;
+        final int threads;
+        final BlockingQueue<Object> input;
+        final Step<Object, Object> step;
+        Stage next;
+
+        final LongAdder items = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+        final LongAdder queueSamples = new LongAdder();
+        final LongAdder queueTotal = new LongAdder();
+        final LongAccumulator queueMax = new LongAccumulator(Math::max, 0);
+
+        Stage(String name, int threads, BlockingQueue<Object> input, Step<Object, Object> step) {
+            this.name = name;
+            this.threads = threads;
+            this.input = input;
+            this.step = step;
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private long elapsedNanos;
+
+    private Pipeline() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Builder<T> from(String name, Source<T> source) {
+        Pipeline pipeline = new Pipeline();
+        Step<Object, Object> produce = ignored -> {
+            Stage self = pipeline.stages.get(0);
+            source.produce(item -> pipeline.put(self, item));
+            return null;
+        };
+        pipeline.stages.add(new Stage(name, 1, null, produce));
+        return new Builder<>(pipeline);
+    }
+
+    /** Runs every stage to completion. */
+    void run() throws InterruptedException {
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (Stage stage : stages) {
+            AtomicInteger running = new AtomicInteger(stage.threads);
+            for (int t = 0; t < stage.threads; t++) {
+                threads.add(Thread.ofPlatform().name(stage.name + "-" + t).start(() -> work(stage, running)));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private void work(Stage stage, AtomicInteger running) {
+        try {
+            if (stage.input == null) {
+                // The source stage: one call produces everything
+                process(stage, null);
+            } else {
+                while (true) {
+                    int queued = stage.input.size();
+                    stage.queueSamples.increment();
+                    stage.queueTotal.add(queued);
+                    stage.queueMax.accumulate(queued);
+
+                    Object item = stage.input.take();
+                    if (item == END) break;
+                    process(stage, item);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // The last worker out tells every worker of the next stage to stop
+            if (running.decrementAndGet() == 0 && stage.next != null) {
+                for (int i = 0; i < stage.next.threads; i++) {
+                    end(stage.next.input);
+                }
+            }
+        }
+    }
+
+    private void process(Stage stage, Object item) throws InterruptedException {
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = stage.step.apply(item);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception | StackOverflowError e) {
+            // Steps deal with the failures they expect; anything else loses just this item
+            System.err.println(stage.name + ": " + e);
+            result = null;
+        }
+        // The source's one call includes the time it spent blocked
+        stage.busyNanos.add(System.nanoTime() - start - (stage.input == null ? stage.blockedNanos.sum() : 0));
+        if (stage.input != null) stage.items.increment();
+        if (result != null) put(stage, result);
+    }
+
+    /** Passes {@code item} from {@code stage} to the next one, if there is a next one. */
+    private void put(Stage stage, Object item) throws InterruptedException {
+        if (stage.input == null) stage.items.increment();
+        if (stage.next == null) return;
+        if (stage.next.input.offer(item)) return;
+
+        long start = System.nanoTime();
+        stage.next.input.put(item);
+        stage.blockedNanos.add(System.nanoTime() - start);
+    }
+
+    private static void end(BlockingQueue<Object> queue) {
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** One line per stage: items, throughput, share of time busy and blocked, input queue length. */
+    void printStats(PrintStream out) {
+        double seconds = elapsedNanos / 1e9;
+        out.printf("%-10s %7s %10s %11s %7s %9s %22s%n",
+                "stage", "threads", "items", "items/s", "busy%", "blocked%", "queue avg/max/capacity");
+        for (Stage stage : stages) {
+            double threadNanos = (double) elapsedNanos * stage.threads;
+            String queue = "-";
+            if (stage.input != null) {
+                long samples = stage.queueSamples.sum();
+                queue = String.format("%.1f/%d/%d", samples == 0 ? 0.0 : (double) stage.queueTotal.sum() / samples,
+                        stage.queueMax.get(), stage.input.size() + stage.input.remainingCapacity());
+            }
+            out.printf("%-10s %7d %10d %11.1f %7.1f %9.1f %22s%n",
+                    stage.name, stage.threads, stage.items.sum(), stage.items.sum() / seconds,
+                    100 * stage.busyNanos.sum() / threadNanos, 100 * stage.blockedNanos.sum() / threadNanos, queue);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Per-file {@link MethodReport}s of a source tree plus the project-wide call graph, kept in
+ * memory and patched one file at a time.
+ *
+ * Methods are identified by {@link MethodReport#id()}, interned into int ids as
+ * {@link CallGraph} does, and calls are resolved across files by a {@link CallResolver}. The
+ * graph has to be patched in place, so instead of a CSR each id has its own int arrays of
+ * callees and callers; both are still O(1) to reach. An id is kept for the life of the index,
+ * so a file rewritten in place links back to the same nodes.
+ *
+ * A method is recursive across the project when it lies on a cycle of the graph. When a file
+ * changes, only the methods it defines (before and after the change) and the callers whose
+ * calls may now resolve differently can gain or lose a cycle through them. So one SCC pass is
+ * run over just the methods a cycle through them can involve: the recursion groups they were
+ * in, and the methods both reachable from them and reaching them.
+ *
+ * Project-level costs ({@link Complexity#compose} over the whole graph, so calls into other
+ * files count) are computed on first use after a change, in one pass over the graph.
+ */
+class ProjectIndex {
+
+    private final Map<Path, Collection<MethodReport>> files = new HashMap<>();
+    private final CallResolver resolver = new CallResolver();
+
+    // Symbol table; the arrays below are all indexed by id
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[64];
+    private int size;
+
+    // Report of each id, null while no indexed file defines it
+    private MethodReport[] methods = new MethodReport[64];
+    private IntList[] callees = new IntList[64];
+    private IntList[] callers = new IntList[64];
+    // Recursion group of every id on a cycle, null elsewhere; members share one array
+    private int[][] groups = new int[64][];
+
+    // Methods with a call to a given method name, to find calls a new overload may capture
+    private final Map<String, IntList> callersByName = new HashMap<>();
+
+    // Composed cost of every method by id; null when a change has made it stale
+    private int[] costs;
+
+    Collection<MethodReport> reports(Path file) {
+        return files.getOrDefault(file, Collections.emptyList());
+    }
+
+    Set<Path> files() {
+        return files.keySet();
+    }
+
+    boolean isRecursive(MethodReport r) {
+        Integer id = ids.get(r.id());
+        return r.isRecursive || (id != null && groups[id] != null);
+    }
+
+    /** Cost of {@code r} with calls resolved across the project; its own file's estimate if not indexed. */
+    int cost(MethodReport r) {
+        Integer id = ids.get(r.id());
+        return id == null || methods[id] == null ? r.cost : costs()[id];
+    }
+
+    /** The {@code limit} costliest methods of the project, costliest first, ties by id. */
+    List<MethodReport> hotspots(int limit) {
+        int[] costs = costs();
+        Comparator<Integer> order = Comparator.<Integer>comparingInt(id -> costs[id])
+                .reversed().thenComparing(id -> names[id]);
+        // Keeps the best `limit` seen so far, weakest at the head
+        PriorityQueue<Integer> top = new PriorityQueue<>(order.reversed());
+        for (int id = 0; id < size; id++) {
+            if (methods[id] == null) continue;
+            top.add(id);
+            if (top.size() > limit) top.poll();
+        }
+        List<Integer> ranked = new ArrayList<>(top);
+        ranked.sort(order);
+        List<MethodReport> hotspots = new ArrayList<>(ranked.size());
+        for (int id : ranked) {
+            hotspots.add(methods[id]);
+        }
+        return hotspots;
+    }
+
+    private int[] costs() {
+        if (costs == null) {
+            List<MethodReport> present = present();
+            CallGraph graph = CallGraph.of(present, resolver);
+            int[] composed = Complexity.compose(graph, present);
+            costs = new int[size];
+            for (MethodReport m : present) {
+                costs[ids.get(m.id())] = composed[graph.id(m.id())];
+            }
+        }
+        return costs;
+    }
+
+    private List<MethodReport> present() {
+        List<MethodReport> present = new ArrayList<>();
+        for (int id = 0; id < size; id++) {
+            if (methods[id] != null) present.add(methods[id]);
+        }
+        return present;
+    }
+
+    /** Adds many files at once and computes recursion for the whole graph. */
+    void load(Map<Path, Collection<MethodReport>> analyzed) {
+        for (Map.Entry<Path, Collection<MethodReport>> e : analyzed.entrySet()) {
+            files.put(e.getKey(), e.getValue());
+            for (MethodReport m : e.getValue()) {
+                addMethod(m);
+            }
+        }
+        BitSet all = new BitSet(size);
+        all.set(0, size);
+        relink(all);
+
+        costs = null;
+        Arrays.fill(groups, null);
+        recursionGroups(CallGraph.of(present(), resolver));
+    }
+
+    /**
+     * Replaces the reports of {@code file} ({@code null} removes it) and updates recursion for
+     * the affected part of the graph. Returns the ids of methods whose project-level recursion
+     * flag changed.
+     */
+    Set<String> update(Path file, Collection<MethodReport> reports) {
+        Collection<MethodReport> old = files.remove(file);
+        costs = null;
+        Set<String> defined = new HashSet<>();
+        BitSet changed = new BitSet(size);
+        if (old != null) {
+            for (MethodReport m : old) {
+                defined.add(m.name);
+                changed.set(intern(m.id()));
+            }
+        }
+        if (reports != null) {
+            for (MethodReport m : reports) {
+                defined.add(m.name);
+                changed.set(intern(m.id()));
+            }
+        }
+        // Calls to these names may resolve to a different set of methods now
+        for (String name : defined) {
+            IntList named = callersByName.get(name);
+            for (int i = 0; named != null && i < named.size; i++) {
+                changed.set(named.items[i]);
+            }
+        }
+
+        // Everything that sat on a cycle through a changed method may have lost it
+        BitSet affected = new BitSet(size);
+        for (int m = changed.nextSetBit(0); m >= 0; m = changed.nextSetBit(m + 1)) {
+            if (groups[m] != null) {
+                for (int member : groups[m]) {
+                    affected.set(member);
+                }
+            }
+        }
+
+        if (old != null) {
+            for (MethodReport m : old) {
+                removeMethod(m);
+            }
+        }
+        if (reports != null) {
+            files.put(file, reports);
+            for (MethodReport m : reports) {
+                addMethod(m);
+            }
+        }
+        relink(changed);
+
+        // A cycle through a changed method only visits methods it reaches and that reach it
+        BitSet onCycles = reachable(changed, callees);
+        onCycles.and(reachable(changed, callers));
+        affected.or(onCycles);
+
+        // Cycles through no changed method are unaffected, and any touching these lie within them
+        CallGraph.Builder builder = new CallGraph.Builder();
+        for (int m = affected.nextSetBit(0); m >= 0; m = affected.nextSetBit(m + 1)) {
+            if (methods[m] == null) continue;
+            int from = builder.node(names[m]);
+            IntList out = callees[m];
+            for (int i = 0; out != null && i < out.size; i++) {
+                int target = out.items[i];
+                if (affected.get(target)) builder.edge(from, builder.node(names[target]), Complexity.ONE);
+            }
+        }
+        BitSet wasRecursive = new BitSet(size);
+        for (int m = affected.nextSetBit(0); m >= 0; m = affected.nextSetBit(m + 1)) {
+            if (groups[m] != null) wasRecursive.set(m);
+            groups[m] = null;
+        }
+        recursionGroups(builder.build());
+
+        Set<String> flipped = new HashSet<>();
+        for (int m = affected.nextSetBit(0); m >= 0; m = affected.nextSetBit(m + 1)) {
+            if (wasRecursive.get(m) != (groups[m] != null)) flipped.add(names[m]);
+        }
+        return flipped;
+    }
+
+    /** Records the recursion groups of {@code graph}, whose nodes are method ids, in {@link #groups}. */
+    private void recursionGroups(CallGraph graph) {
+        for (int[] group : graph.recursiveGroups()) {
+            int[] members = new int[group.length];
+            for (int i = 0; i < group.length; i++) {
+                members[i] = ids.get(graph.names[group[i]]);
+            }
+            for (int member : members) {
+                groups[member] = members;
+            }
+        }
+    }
+
+    /** Id of {@code name}, adding it to the symbol table if new. */
+    private int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        if (size == names.length) {
+            int capacity = 2 * size;
+            names = Arrays.copyOf(names, capacity);
+            methods = Arrays.copyOf(methods, capacity);
+            callees = Arrays.copyOf(callees, capacity);
+            callers = Arrays.copyOf(callers, capacity);
+            groups = Arrays.copyOf(groups, capacity);
+        }
+        ids.put(name, size);
+        names[size] = name;
+        return size++;
+    }
+
+    private void addMethod(MethodReport m) {
+        int id = intern(m.id());
+        methods[id] = m;
+        resolver.add(m);
+        for (String name : calledNames(m)) {
+            callersByName.computeIfAbsent(name, k -> new IntList()).add(id);
+        }
+    }
+
+    /** Drops {@code m}; its edges, and those of every caller, go when {@link #relink} runs over them. */
+    private void removeMethod(MethodReport m) {
+        int id = ids.get(m.id());
+        methods[id] = null;
+        resolver.remove(m);
+        for (String name : calledNames(m)) {
+            IntList named = callersByName.get(name);
+            if (named != null && named.remove(id) && named.size == 0) callersByName.remove(name);
+        }
+    }
+
+    /**
+     * (Re)computes the outgoing edges of every id in {@code sources} against the current set
+     * of methods. Old edges are dropped from their targets' caller lists in one pass per
+     * target, however many of its callers are relinked.
+     */
+    private void relink(BitSet sources) {
+        BitSet targets = new BitSet(size);
+        for (int m = sources.nextSetBit(0); m >= 0; m = sources.nextSetBit(m + 1)) {
+            IntList out = callees[m];
+            for (int i = 0; out != null && i < out.size; i++) {
+                targets.set(out.items[i]);
+            }
+            callees[m] = null;
+        }
+        for (int t = targets.nextSetBit(0); t >= 0; t = targets.nextSetBit(t + 1)) {
+            callers[t].removeAll(sources);
+            if (callers[t].size == 0) callers[t] = null;
+        }
+
+        for (int m = sources.nextSetBit(0); m >= 0; m = sources.nextSetBit(m + 1)) {
+            MethodReport report = methods[m];
+            if (report == null) continue;
+            IntList out = new IntList();
+            for (String call : report.callsTo) {
+                for (MethodReport target : resolver.resolve(report, call)) {
+                    out.add(ids.get(target.id()));
+                }
+            }
+            out.distinct();
+            if (out.size == 0) continue;
+
+            callees[m] = out;
+            for (int i = 0; i < out.size; i++) {
+                int target = out.items[i];
+                if (callers[target] == null) callers[target] = new IntList();
+                callers[target].add(m);
+            }
+        }
+    }
+
+    private static Set<String> calledNames(MethodReport m) {
+        Set<String> names = new HashSet<>();
+        for (String call : m.callsTo) {
+            names.add(call.substring(call.indexOf('.') + 1, call.lastIndexOf('/')));
+        }
+        return names;
+    }
+
+    /** {@code starts} and the ids reachable from them over {@code edges}, in one traversal. */
+    private BitSet reachable(BitSet starts, IntList[] edges) {
+        BitSet seen = (BitSet) starts.clone();
+        IntList stack = new IntList();
+        for (int m = starts.nextSetBit(0); m >= 0; m = starts.nextSetBit(m + 1)) {
+            stack.add(m);
+        }
+        while (stack.size > 0) {
+            IntList next = edges[stack.items[--stack.size]];
+            for (int i = 0; next != null && i < next.size; i++) {
+                int n = next.items[i];
+                if (!seen.get(n)) {
+                    seen.set(n);
+                    stack.add(n);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /** Growable int array; order is not kept on removal. */
+    private static class IntList {
+        int[] items = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == items.length) items = Arrays.copyOf(items, 2 * size);
+            items[size++] = value;
+        }
+
+        boolean remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == value) {
+                    items[i] = items[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void removeAll(BitSet values) {
+            int write = 0;
+            for (int i = 0; i < size; i++) {
+                if (!values.get(items[i])) items[write++] = items[i];
+            }
+            size = write;
+        }
+
+        /** Sorts and drops duplicates. */
+        void distinct() {
+            Arrays.sort(items, 0, size);
+            int write = 0;
+            for (int i = 0; i < size; i++) {
+                if (write == 0 || items[write - 1] != items[i]) items[write++] = items[i];
+            }
+            size = write;
+        }
+    }
+}
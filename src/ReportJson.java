@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * JSON rendering of analysis results, shared by {@code /analyze} and {@code /analyze/batch}.
+ */
+class ReportJson {
+
+    private ReportJson() {
+    }
+
+    /**
+     * Writes the {@code /analyze} response for {@code reports} to {@code out} as it goes, so
+     * the response is never held in memory as a whole.
+     */
+    static void writeAnalysis(Appendable out, Collection<MethodReport> reports, Budget budget) throws IOException {
+        // Includes the time spent waiting on the client, as the output is streamed
+        long start = System.nanoTime();
+        out.append("{\"success\": true, ");
+        writeTruncation(out, budget);
+        writeResults(out, reports);
+        out.append("}");
+        Metrics.SERIALIZE.since(start);
+    }
+
+    /**
+     * One NDJSON line for {@code /analyze/batch}: the single-file response with the file's
+     * path added, analyzed within its own {@link Budget}. Never throws, so a bad file only
+     * affects its own line.
+     */
+    static String analyzeFile(String path, String code) {
+        try {
+            Budget budget = Budget.fromConfig();
+            Collection<MethodReport> reports = Analyzer.analyze(code, budget);
+
+            long start = System.nanoTime();
+            StringBuilder json = new StringBuilder();
+            json.append("{\"path\": ");
+            writeString(json, path);
+            json.append(", \"success\": true, ");
+            writeTruncation(json, budget);
+            writeResults(json, reports);
+            json.append("}");
+            Metrics.SERIALIZE.since(start);
+            return json.toString();
+
+        } catch (Exception e) {
+            Metrics.ANALYSIS_FAILURES.increment();
+            return fileError(path, e);
+        }
+    }
+
+    private static void writeTruncation(Appendable json, Budget budget) throws IOException {
+        json.append("\"truncated\": ").append(String.valueOf(budget.truncated())).append(", ");
+        if (budget.truncated()) {
+            json.append("\"truncation\": ");
+            writeString(json, budget.truncation());
+            json.append(", ");
+        }
+    }
+
+    static String fileError(String path, Throwable e) {
+        return "{\"path\": \"" + escapeJson(path) + "\", \"success\": false, \"error\": \""
+                + escapeJson(e.getMessage()) + "\"}";
+    }
+
+    static String error(Throwable e) {
+        return "{\"success\": false, \"error\": \"" + escapeJson(e.getMessage()) + "\"}";
+    }
+
+    static void writeResults(Appendable json, Collection<MethodReport> reports) throws IOException {
+        json.append("\"results\": [");
+        boolean first = true;
+        for (MethodReport r : reports) {
+            if (!first) json.append(",");
+            first = false;
+            
+            json.append("{\"method\": ");
+            writeString(json, r.name);
+            json.append(",\"class\": ");
+            writeString(json, r.owner);
+            json.append(",\"signature\": ");
+            writeString(json, r.signature);
+            json.append(",\"timeComplexity\": ");
+            writeString(json, Complexity.time(r));
+            json.append(",\"spaceComplexity\": ");
+            writeString(json, r.isRecursive ? "O(n)" : "O(1)");
+            json.append(",\"isRecursive\": ").append(String.valueOf(r.isRecursive));
+            json.append(",\"nestedDepth\": ").append(String.valueOf(r.maxNestedLoopDepth));
+            json.append(",\"recursionGroup\": [");
+            if (r.recursionGroup != null) {
+                for (int i = 0; i < r.recursionGroup.size(); i++) {
+                    if (i > 0) json.append(",");
+                    writeString(json, r.recursionGroup.get(i));
+                }
+            }
+            json.append("],\"loops\": ");
+            writeString(json, r.loops.toString());
+            json.append("}");
+        }
+        json.append("]");
+    }
+
+    static String escapeJson(String s) {
+        if (s == null) return "";
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        try {
+            escape(sb, s);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+
+    /** Writes {@code s} as a quoted JSON string ({@code null} as an empty one). */
+    /** The length of {@code s} encoded as UTF-8, without encoding it. */
+    static long utf8Length(String s) {
+        long bytes = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            // Two chars of a surrogate pair make four bytes
+            if (c >= 0x80) bytes += c < 0x800 || Character.isSurrogate(c) ? 1 : 2;
+        }
+        return bytes;
+    }
+
+    static void writeString(Appendable out, String s) throws IOException {
+        out.append('"');
+        if (s != null) escape(out, s);
+        out.append('"');
+    }
+
+    private static void escape(Appendable out, String s) throws IOException {
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"' -> replacement = "\\\"";
+                case '\\' -> replacement = "\\\\";
+                case '\n' -> replacement = "\\n";
+                case '\r' -> replacement = "\\r";
+                case '\t' -> replacement = "\\t";
+                // Line and paragraph separators are valid JSON but break JavaScript string literals
+                case '\u2028', '\u2029' -> replacement = String.format("\\u%04x", (int) c);
+                default -> {
+                    if (c >= 0x20) continue;
+                    replacement = String.format("\\u%04x", (int) c);
+                }
+            }
+            out.append(s, start, i).append(replacement);
+            start = i + 1;
+        }
+        out.append(s, start, s.length());
+    }
+}
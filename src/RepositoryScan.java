@@ -0,0 +1,271 @@
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.Providers;
+import com.github.javaparser.ast.CompilationUnit;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Command-line mode of {@link Main}: walks one or more source roots and analyzes every
+ * {@code .java} file as a {@link Pipeline} of stages, each with its own threads:
+ *
+ * <ol>
+ *   <li>discover: walks the roots, one file at a time;</li>
+ *   <li>read: loads each file, memory-mapping those of {@value #MAP_THRESHOLD} bytes or more
+ *   so their text is decoded straight from the page cache by the parser;</li>
+ *   <li>parse, then visit: the two halves of {@link Analyzer#analyze}. At most
+ *   {@code --window} syntax trees exist at a time, from the start of their parse to the end
+ *   of their visit;</li>
+ *   <li>print: writes each file's lines and counts its methods.</li>
+ * </ol>
+ *
+ * Stages are joined by queues of {@code --queue} items, so memory stays bounded by the window
+ * and the queues however large the tree is. Prints one tab-separated line per method
+ * ({@code file, class.signature, time, space, loops}) unless {@code --summary} is given,
+ * then a summary with files/sec and methods/sec and per-stage statistics on stderr.
+ */
+class RepositoryScan {
+
+    // Files at least this large are memory-mapped rather than read onto the heap
+    static final int MAP_THRESHOLD = 1 << 20;
+
+    private record Source(Path file, String code, ByteBuffer mapped) {
+    }
+
+    /** Hands its tree over exactly once, so nothing upstream keeps it alive past the visit. */
+    private static class Parsed {
+        final Path file;
+        private CompilationUnit cu;
+
+        Parsed(Path file, CompilationUnit cu) {
+            this.file = file;
+            this.cu = cu;
+        }
+
+        CompilationUnit take() {
+            CompilationUnit tree = cu;
+            cu = null;
+            return tree;
+        }
+    }
+
+    private record Analyzed(Path file, Collection<MethodReport> reports) {
+    }
+
+    private final PrintStream out;
+    private final boolean printMethods;
+    private final Semaphore window;
+    private final LongAdder files = new LongAdder();
+    private final LongAdder methods = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    RepositoryScan(PrintStream out, boolean printMethods, int window) {
+        this.out = out;
+        this.printMethods = printMethods;
+        this.window = new Semaphore(window);
+    }
+
+    static void run(String[] args) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        boolean printMethods = true;
+        int readThreads = 2;
+        int parseThreads = cores;
+        int visitThreads = Math.max(1, cores / 2);
+        int queue = 64;
+        int window = 2 * cores;
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--summary" -> printMethods = false;
+                case "--read-threads" -> readThreads = Integer.parseInt(args[++i]);
+                case "--parse-threads" -> parseThreads = Integer.parseInt(args[++i]);
+                case "--visit-threads" -> visitThreads = Integer.parseInt(args[++i]);
+                case "--queue" -> queue = Integer.parseInt(args[++i]);
+                case "--window" -> window = Integer.parseInt(args[++i]);
+                default -> roots.add(Paths.get(args[i]));
+            }
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 1 << 16), false, StandardCharsets.UTF_8);
+        RepositoryScan scan = new RepositoryScan(out, printMethods, window);
+
+        long start = System.nanoTime();
+        Pipeline pipeline = Pipeline.<Path>from("discover", sink -> discover(roots, sink))
+                .then("read", readThreads, queue, scan::read)
+                .then("parse", parseThreads, queue, scan::parse)
+                .then("visit", visitThreads, queue, scan::visit)
+                .then("print", 1, queue, scan::print)
+                .pipeline();
+        try {
+            pipeline.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.flush();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.err.printf("Files: %d (%d failed), methods: %d, time: %.2fs%n",
+                scan.files.sum(), scan.failures.sum(), scan.methods.sum(), seconds);
+        System.err.printf("Throughput: %.1f files/s, %.1f methods/s%n",
+                scan.files.sum() / seconds, scan.methods.sum() / seconds);
+        pipeline.printStats(System.err);
+    }
+
+    static List<Path> findSources(List<Path> roots) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (Path root : roots) {
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.filter(RepositoryScan::isSource).forEach(sources::add);
+            }
+        }
+        return sources;
+    }
+
+    private static boolean isSource(Path p) {
+        return p.toString().endsWith(".java") && Files.isRegularFile(p);
+    }
+
+    /** Hands over source files as the walk finds them, never holding the whole list. */
+    private static void discover(List<Path> roots, Pipeline.Sink<Path> sink) throws IOException, InterruptedException {
+        for (Path root : roots) {
+            try (Stream<Path> walk = Files.walk(root)) {
+                for (Path file : (Iterable<Path>) walk.filter(RepositoryScan::isSource)::iterator) {
+                    sink.accept(file);
+                }
+            }
+        }
+    }
+
+    private Source read(Path file) {
+        files.increment();
+        try {
+            long size = Files.size(file);
+            if (size >= MAP_THRESHOLD) {
+                try (FileChannel channel = FileChannel.open(file)) {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    // Fault the pages in here, so parse threads do not wait on the disk
+                    mapped.load();
+                    return new Source(file, null, mapped);
+                }
+            }
+            // Decode leniently: a stray non-UTF-8 byte should not cost us the whole file
+            return new Source(file, new String(Files.readAllBytes(file), StandardCharsets.UTF_8), null);
+        } catch (IOException e) {
+            failures.increment();
+            System.err.println(file + ": " + e);
+            return null;
+        }
+    }
+
+    private Parsed parse(Source source) throws InterruptedException {
+        window.acquire();
+        Parsed parsed = null;
+        try {
+            CompilationUnit cu = source.mapped() == null
+                    ? Analyzer.parse(source.code())
+                    : Analyzer.parse(Providers.provider(new InputStreamReader(
+                            new BufferInputStream(source.mapped()), StandardCharsets.UTF_8)));
+            parsed = new Parsed(source.file(), cu);
+        } catch (ParseProblemException e) {
+            fail(source.file(), "parse failed");
+        } catch (RuntimeException | StackOverflowError e) {
+            fail(source.file(), "analysis failed: " + e);
+        } finally {
+            // Only a tree handed on to the visit stage keeps the permit; any other way out,
+            // errors the pipeline does not catch included, gives it back here
+            if (parsed == null) window.release();
+        }
+        return parsed;
+    }
+
+    private Analyzed visit(Parsed parsed) {
+        Budget budget = Budget.unlimited();
+        ComplexityVisitor visitor;
+        try {
+            visitor = Analyzer.visit(parsed.take(), budget);
+        } catch (RuntimeException e) {
+            failures.increment();
+            System.err.println(parsed.file + ": analysis failed: " + e);
+            return null;
+        } finally {
+            // The tree is unreachable now, even while the recursion pass below runs
+            window.release();
+        }
+
+        try {
+            Collection<MethodReport> reports = Analyzer.reports(visitor);
+            if (budget.truncated()) {
+                failures.increment();
+                System.err.println(parsed.file + ": analysis failed: " + budget.truncation());
+                return null;
+            }
+            return new Analyzed(parsed.file, reports);
+        } catch (RuntimeException e) {
+            failures.increment();
+            System.err.println(parsed.file + ": analysis failed: " + e);
+            return null;
+        }
+    }
+
+    private Void print(Analyzed analyzed) {
+        methods.add(analyzed.reports().size());
+        if (!printMethods) return null;
+
+        for (MethodReport r : analyzed.reports()) {
+            out.append(analyzed.file().toString()).append('\t')
+                    .append(r.id()).append('\t')
+                    .append(Complexity.time(r)).append('\t')
+                    .append(r.isRecursive ? "O(n)" : "O(1)").append('\t')
+                    .append(r.loops.toString()).append('\n');
+        }
+        return null;
+    }
+
+    /** Records a file that failed before its syntax tree was handed on, freeing its window slot. */
+    private void fail(Path file, String message) {
+        failures.increment();
+        System.err.println(file + ": " + message);
+    }
+
+    /** Reads a buffer from its position to its limit. */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads a request body into a single array with an upper bound on its size. An identity
+ * body is read straight into an array sized from Content-Length; a compressed or chunked one
+ * grows as it decodes. The bound applies to the decoded size, so a small gzip body cannot
+ * expand past it either.
+ */
+class RequestBody {
+
+    /** Thrown when a body is larger than the limit; answered with {@code 413}. */
+    static class TooLargeException extends IOException {
+        TooLargeException(long limit) {
+            super("Request body exceeds " + limit + " bytes");
+        }
+
+        TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    private RequestBody() {
+    }
+
+    static byte[] read(HttpExchange exchange, long limit) throws IOException {
+        long declared = contentLength(exchange);
+        if (declared > limit) throw new TooLargeException(limit);
+
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        boolean identity = encoding == null || encoding.isBlank() || encoding.trim().equalsIgnoreCase("identity");
+
+        try (InputStream in = Compression.requestBody(exchange)) {
+            int initial = identity && declared >= 0 ? (int) declared : 8192;
+            return read(in, initial, limit);
+        }
+    }
+
+    /** Reads {@code in} to the end into an array of {@code initial} bytes, grown as needed. */
+    static byte[] read(InputStream in, int initial, long limit) throws IOException {
+        byte[] buf = new byte[Math.max(initial, 1)];
+        int size = 0;
+        while (true) {
+            if (size == buf.length) {
+                // A full exact-size buffer is the common case; only grow if more is coming
+                int next = in.read();
+                if (next < 0) return buf;
+                if (size + 1L > limit) throw new TooLargeException(limit);
+                buf = Arrays.copyOf(buf, (int) Math.min(Math.min(limit, Integer.MAX_VALUE - 8),
+                        Math.max(8192, 2L * buf.length)));
+                buf[size++] = (byte) next;
+                continue;
+            }
+            int n = in.read(buf, size, buf.length - size);
+            if (n < 0) break;
+            size += n;
+            // Only reachable when the caller's initial size is over the limit
+            if (size > limit) throw new TooLargeException(limit);
+        }
+        return size == buf.length ? buf : Arrays.copyOf(buf, size);
+    }
+
+    /** {@code in}, failing with {@link TooLargeException} once more than {@code limit} bytes are read. */
+    static InputStream limit(InputStream in, long limit) {
+        return new FilterInputStream(in) {
+            private long remaining = limit;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) count(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) count(n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                count(skipped);
+                return skipped;
+            }
+
+            private void count(long n) throws TooLargeException {
+                remaining -= n;
+                if (remaining < 0) throw new TooLargeException(limit);
+            }
+        };
+    }
+
+    /** The declared Content-Length, or -1 if there is none or it is not a number. */
+    static long contentLength(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (header == null) return -1;
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
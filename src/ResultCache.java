@@ -0,0 +1,161 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * In-memory cache of serialized {@code /analyze} responses, keyed by a hash of the request
+ * body and {@link Analyzer#VERSION}.
+ *
+ * Entries are kept in LRU order within a byte budget. When the budget is exceeded, a new
+ * entry only displaces the LRU victim if it has been requested more often (TinyLFU
+ * admission), so a stream of one-off bodies cannot flush out the ones clients keep resending.
+ */
+class ResultCache {
+
+    // Rough per-entry cost of the map node, key string and array header
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final long budget;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long size = 0;
+
+    ResultCache(long budget) {
+        this.budget = budget;
+        // Assume ~4 KB per response to size the sketch; it only needs to be roughly right
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, budget / 4096)));
+    }
+
+    /** Hex digest identifying {@code body} under the current analyzer version. */
+    static String key(byte[] body) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(Analyzer.VERSION.getBytes(StandardCharsets.UTF_8));
+            md.update(body);
+            return hex(md.digest(), 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes, int length) {
+        StringBuilder sb = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /** True if an If-None-Match header value lists {@code etag} (or is "*"). */
+    static boolean matches(String ifNoneMatch, String etag) {
+        return matches(ifNoneMatch, etag, true);
+    }
+
+    /**
+     * True if an If-None-Match header value lists {@code etag} itself. For {@code /analyze},
+     * where "*" would claim a result exists for a body that may never have been analyzed.
+     */
+    static boolean lists(String ifNoneMatch, String etag) {
+        return matches(ifNoneMatch, etag, false);
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag, boolean wildcard) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+            if ((wildcard && candidate.equals("*")) || candidate.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    synchronized byte[] get(String key) {
+        sketch.increment(key.hashCode());
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, byte[] value) {
+        long weight = weigh(value);
+        if (weight > budget) return;
+
+        byte[] previous = entries.remove(key);
+        if (previous != null) size -= weigh(previous);
+
+        if (size + weight > budget && previous == null) {
+            String victim = entries.keySet().iterator().next();
+            if (sketch.frequency(key.hashCode()) <= sketch.frequency(victim.hashCode())) {
+                return;
+            }
+        }
+
+        Iterator<byte[]> lru = entries.values().iterator();
+        while (size + weight > budget) {
+            size -= weigh(lru.next());
+            lru.remove();
+        }
+
+        entries.put(key, value);
+        size += weight;
+    }
+
+    private static long weigh(byte[] value) {
+        return value.length + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four rows deep. All counters are halved once the
+     * number of increments reaches ten times the width, so old popularity fades out.
+     */
+    static class FrequencySketch {
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] rows = new byte[SEEDS.length][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int width) {
+            int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new byte[size];
+            }
+            this.mask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        void increment(int hash) {
+            for (int i = 0; i < rows.length; i++) {
+                int index = index(hash, i);
+                if (rows[i][index] < 15) rows[i][index]++;
+            }
+            if (++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < rows.length; i++) {
+                min = Math.min(min, rows[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Tunables for {@link CodeAnalyzerServer}, read once from system properties
+ * (e.g. {@code java -Danalyzer.executor=virtual CodeAnalyzerServer}).
+ */
+class ServerConfig {
+
+    /** Port {@code main} listens on. */
+    static final int PORT = Integer.getInteger("analyzer.port", 8080);
+
+    /** "jdk" for the com.sun.net.httpserver front end, "nio" for {@link NioServer}. */
+    static final String FRONT_END = System.getProperty("analyzer.frontEnd", "jdk");
+
+    /** Selector loops of the nio front end, each accepting and serving its own connections. */
+    static final int SELECTORS = Integer.getInteger("analyzer.selectors", 1);
+
+    /** Request body bytes the nio front end holds at once over all connections; more gets a 503. */
+    static final long BODY_BUFFER_BYTES = Long.getLong("analyzer.bodyBufferBytes", 64L * 1024 * 1024);
+
+    /** "platform" for a fixed worker pool, "virtual" for one virtual thread per request. */
+    static final String EXECUTOR = System.getProperty("analyzer.executor", "platform");
+
+    /** Worker threads in platform mode; also the number of requests that run at once. */
+    static final int THREADS = Integer.getInteger("analyzer.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Requests allowed to wait for a worker before new ones are turned away. */
+    static final int QUEUE_DEPTH = Integer.getInteger("analyzer.queueDepth", 64);
+
+    /** Value of the Retry-After header sent with a 503 when the queue is full. */
+    static final int RETRY_AFTER_SECONDS = Integer.getInteger("analyzer.retryAfterSeconds", 1);
+
+    /** Largest accepted {@code /analyze} request body, after decoding; larger ones get 413. */
+    static final long MAX_BODY_BYTES = Long.getLong("analyzer.maxBodyBytes", 16L * 1024 * 1024);
+
+    /** Time one analysis may take before it stops with partial results; 0 for no limit. */
+    static final long ANALYSIS_TIMEOUT_MILLIS = Long.getLong("analyzer.timeoutMillis", 10_000);
+
+    /** Statements and compound expressions one analysis may visit; 0 for no limit. */
+    static final long ANALYSIS_MAX_NODES = Long.getLong("analyzer.maxNodes", 5_000_000);
+
+    /** Member declarations a file needs before it is analyzed in parallel; 0 never splits files. */
+    static final int PARALLEL_MIN_MEMBERS = Integer.getInteger("analyzer.parallelMinMembers", 256);
+
+    /** Byte budget of the in-memory result cache; 0 disables it. */
+    static final long CACHE_BYTES = Long.getLong("analyzer.cacheBytes", 64L * 1024 * 1024);
+
+    /** Largest response kept in the result caches; bigger ones are streamed but not cached. */
+    static final long CACHE_MAX_ENTRY_BYTES = Long.getLong("analyzer.cacheMaxEntryBytes", 1024 * 1024);
+
+    /** Deflate level (1-9) for gzipped {@code /analyze} responses; 0 turns compression off. */
+    static final int COMPRESSION_LEVEL = Integer.getInteger("analyzer.compressionLevel", 1);
+
+    /** Responses up to this many bytes are sent uncompressed even if the client accepts gzip. */
+    static final int COMPRESSION_MIN_BYTES = Integer.getInteger("analyzer.compressionMinBytes", 1024);
+
+    /** Largest {@code /analyze/batch} body after decoding; also caps what a batch's zip entries expand to. */
+    static final long BATCH_MAX_BODY_BYTES = Long.getLong("analyzer.batchMaxBodyBytes", 256L * 1024 * 1024);
+
+    /** Files one batch or job may contain; more gets a 413. */
+    static final int BATCH_MAX_FILES = Integer.getInteger("analyzer.batchMaxFiles", 10_000);
+
+    /** Background jobs ({@code /jobs}) that run at once. */
+    static final int JOB_CONCURRENCY = Integer.getInteger("analyzer.jobConcurrency", 2);
+
+    /** Jobs allowed to wait for a job worker before new ones are turned away. */
+    static final int JOB_QUEUE_DEPTH = Integer.getInteger("analyzer.jobQueueDepth", 100);
+
+    /** How long a finished job and its results are kept for polling clients. */
+    static final long JOB_TTL_SECONDS = Long.getLong("analyzer.jobTtlSeconds", 3600);
+
+    /** Finished jobs kept at once; past this the oldest are forgotten before their TTL. */
+    static final int JOB_MAX_RETAINED = Integer.getInteger("analyzer.jobMaxRetained", 1000);
+
+    /** Result bytes all kept finished jobs may hold; past this the oldest are forgotten before their TTL. */
+    static final long JOB_RETAINED_BYTES = Long.getLong("analyzer.jobRetainedBytes", 256L * 1024 * 1024);
+
+    /** Largest accepted {@code /jobs} request body, after decoding; larger ones get 413. */
+    static final long JOB_MAX_BODY_BYTES = Long.getLong("analyzer.jobMaxBodyBytes", 256L * 1024 * 1024);
+
+    /** Request bodies all queued and running jobs may hold between them; past this {@code /jobs} answers 503. */
+    static final long JOB_BODY_BYTES = Long.getLong("analyzer.jobBodyBytes", 512L * 1024 * 1024);
+
+    /** Passes over the bundled warm-up corpus before {@code /ready} reports ready; 0 skips the warm-up. */
+    static final int WARMUP_ROUNDS = Integer.getInteger("analyzer.warmupRounds", 0);
+
+    /** Longest the warm-up may run; the server reports ready after this even if rounds remain. */
+    static final long WARMUP_MAX_MILLIS = Long.getLong("analyzer.warmupMaxMillis", 30_000);
+
+    /** Directory for the persistent result cache; unset disables it. */
+    static final String DISK_CACHE_DIR = System.getProperty("analyzer.diskCache");
+
+    /** Largest the disk cache segment grows; once full, new results are no longer written to it. */
+    static final long DISK_CACHE_BYTES = Long.getLong("analyzer.diskCacheBytes", 1L << 30);
+
+    private ServerConfig() {
+    }
+}
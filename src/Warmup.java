@@ -0,0 +1,239 @@
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs a bundled corpus through the same path as an {@code /analyze} cache miss (body hash,
+ * parse, visit, call graph, JSON, gzip) before the server reports ready, so the JIT has
+ * compiled JavaParser and the visitor by the time a load balancer sends real traffic. Until
+ * then {@code /ready} answers 503; the other endpoints work throughout, just slower.
+ *
+ * The corpus never touches the result caches or the endpoint counters. Its stage timings
+ * would skew the latency histograms, so those are cleared when the warm-up ends.
+ */
+class Warmup {
+
+    // Methods per generated class; the largest is over ServerConfig.PARALLEL_MIN_MEMBERS so
+    // split files are warmed up too
+    private static final int[] SIZES = {10, 100, 300};
+
+    private final int rounds;
+    private final long maxMillis;
+    private volatile boolean ready;
+
+    Warmup(int rounds, long maxMillis) {
+        this.rounds = rounds;
+        this.maxMillis = maxMillis;
+        this.ready = rounds <= 0;
+    }
+
+    static Warmup fromConfig() {
+        return new Warmup(ServerConfig.WARMUP_ROUNDS, ServerConfig.WARMUP_MAX_MILLIS);
+    }
+
+    /** Runs the warm-up on a background thread, if there is one to run. */
+    void start() {
+        if (ready) return;
+        Thread.ofPlatform().daemon().name("warmup").start(this::run);
+    }
+
+    /** Analyzes the corpus {@code rounds} times or until {@code maxMillis} pass, then reports ready. */
+    void run() {
+        long start = System.nanoTime();
+        long deadline = start + maxMillis * 1_000_000;
+        int analyses = 0;
+        try {
+            List<byte[]> corpus = corpus();
+            for (int round = 0; round < rounds && System.nanoTime() < deadline; round++) {
+                for (byte[] body : corpus) {
+                    analyze(body);
+                    analyses++;
+                }
+            }
+        } catch (RuntimeException | IOException e) {
+            // A warm-up failure must not keep the server out of rotation
+            System.err.println("Warm-up stopped early: " + e);
+        } finally {
+            Metrics.resetAnalysisStages();
+            ready = true;
+        }
+        System.out.printf("Warm-up: %d analyses in %.2fs, ready%n", analyses, (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void analyze(byte[] body) throws IOException {
+        ResultCache.key(body);
+        Budget budget = Budget.fromConfig();
+        Collection<MethodReport> reports = Analyzer.analyze(body, budget);
+        OutputStream sink = ServerConfig.COMPRESSION_LEVEL > 0
+                ? Compression.gzipStream(OutputStream.nullOutputStream(), ServerConfig.COMPRESSION_LEVEL)
+                : OutputStream.nullOutputStream();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(sink, StandardCharsets.UTF_8))) {
+            ReportJson.writeAnalysis(out, reports, budget);
+        }
+    }
+
+    /** {@code GET /ready}: 200 once warmed up, 503 with Retry-After until then. */
+    HttpHandler handler() {
+        return exchange -> {
+            boolean warm = ready;
+            byte[] response = (warm ? "ready" : "warming up").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            if (!warm) exchange.getResponseHeaders().set("Retry-After", String.valueOf(ServerConfig.RETRY_AFTER_SECONDS));
+            exchange.sendResponseHeaders(warm ? 200 : 503, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        };
+    }
+
+    static List<byte[]> corpus() {
+        List<byte[]> corpus = new ArrayList<>();
+        for (int methods : SIZES) {
+            corpus.add(source(methods).getBytes(StandardCharsets.UTF_8));
+        }
+        return corpus;
+    }
+
+    /**
+     * A class of {@code methods} methods cycling through the constructs real sources use, so
+     * the parser's and the visitor's paths for each of them get compiled: every loop kind,
+     * recursion, lambdas, generics, switch expressions, try/catch, anonymous and nested types.
+     */
+    static String source(int methods) {
+        StringBuilder sb = new StringBuilder("""
+                package warmup;
+
+                import java.util.*;
+                import java.util.function.Function;
+
+                /** Generated warm-up input. */
+                @SuppressWarnings("unchecked")
+                public class Corpus<T extends Comparable<T>> {
+
+                    private final List<T> items = new ArrayList<>();
+                    private static final int LIMIT = 1 << 10;
+
+                    enum Kind { SMALL, LARGE }
+
+                    record Pair<A, B>(A first, B second) {
+                    }
+
+                    interface Visitor {
+                        int visit(int depth);
+                    }
+                """);
+        for (int i = 0; i < methods; i++) {
+            switch (i % 8) {
+                case 0 -> sb.append("""
+
+                            long sum%d(int[][] grid) {
+                                long total = 0;
+                                for (int r = 0; r < grid.length; r++) {
+                                    for (int c = 0; c < grid[r].length; c++) {
+                                        total += grid[r][c] * (long) LIMIT;
+                                    }
+                                }
+                                return total;
+                            }
+                        """.formatted(i));
+                case 1 -> sb.append("""
+
+                            int search%d(int[] sorted, int key) {
+                                int lo = 0, hi = sorted.length - 1;
+                                while (lo <= hi) {
+                                    int mid = (lo + hi) >>> 1;
+                                    if (sorted[mid] < key) lo = mid + 1;
+                                    else if (sorted[mid] > key) hi = mid - 1;
+                                    else return mid;
+                                }
+                                return -(lo + 1);
+                            }
+                        """.formatted(i));
+                case 2 -> sb.append("""
+
+                            int fib%d(int n) {
+                                return n < 2 ? n : fib%d(n - 1) + fib%d(n - 2);
+                            }
+                        """.formatted(i, i, i));
+                case 3 -> sb.append("""
+
+                            boolean even%d(int n) {
+                                return n == 0 || odd%d(n - 1);
+                            }
+
+                            boolean odd%d(int n) {
+                                return n != 0 && even%d(n - 1);
+                            }
+                        """.formatted(i, i, i, i));
+                case 4 -> sb.append("""
+
+                            <R> List<R> map%d(Function<? super T, ? extends R> f) {
+                                List<R> out = new ArrayList<>(items.size());
+                                items.stream().filter(Objects::nonNull).forEach(x -> out.add(f.apply(x)));
+                                for (T item : items) {
+                                    Collections.sort(out, (a, b) -> a.hashCode() - b.hashCode());
+                                }
+                                return out;
+                            }
+                        """.formatted(i));
+                case 5 -> sb.append("""
+
+                            String describe%d(Object o, Kind size) {
+                                if (o instanceof String s && !s.isEmpty()) return "text of " + s.length();
+                                String kind = switch (size) {
+                                    case SMALL -> "small";
+                                    case LARGE -> {
+                                        int bits = Integer.bitCount(o.hashCode()) & 0xFF;
+                                        yield "large/" + bits;
+                                    }
+                                };
+                                return "%%s [%%d]".formatted(kind, %d);
+                            }
+                        """.formatted(i, i));
+                case 6 -> sb.append("""
+
+                            int parse%d(String text) {
+                                int steps = 0;
+                                try {
+                                    int n = Integer.parseInt(text.trim());
+                                    do {
+                                        n /= 2;
+                                        steps++;
+                                    } while (n > 1);
+                                } catch (NumberFormatException | NullPointerException e) {
+                                    steps = -1;
+                                } finally {
+                                    items.clear();
+                                }
+                                return steps;
+                            }
+                        """.formatted(i));
+                default -> sb.append("""
+
+                            Visitor visitor%d(Map<String, Pair<Integer, Kind>> table) {
+                                return new Visitor() {
+                                    @Override
+                                    public int visit(int depth) {
+                                        int found = 0;
+                                        for (Map.Entry<String, Pair<Integer, Kind>> e : table.entrySet()) {
+                                            if (e.getValue().second() == Kind.LARGE) found += visit(depth - 1);
+                                        }
+                                        return depth <= 0 ? found : found + table.size();
+                                    }
+                                };
+                            }
+                        """.formatted(i));
+            }
+        }
+        return sb.append("}\n").toString();
+    }
+}
@@ -0,0 +1,157 @@
+import com.github.javaparser.ParseProblemException;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@code java Main --watch <root>...}: analyzes the tree once, then re-analyzes only the files
+ * a file-system watcher reports as changed and patches the {@link ProjectIndex}.
+ */
+class WatchMode {
+
+    // Editors often write a file in several steps; wait this long for the burst to settle
+    private static final long SETTLE_MILLIS = 100;
+    // Methods listed after the initial load
+    private static final int HOTSPOTS = 10;
+
+    private final ProjectIndex index = new ProjectIndex();
+    private final WatchService watcher;
+
+    private WatchMode(WatchService watcher) {
+        this.watcher = watcher;
+    }
+
+    static void run(List<Path> roots) throws IOException, InterruptedException {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            WatchMode mode = new WatchMode(watcher);
+            for (Path root : roots) {
+                mode.register(root);
+            }
+
+            long start = System.nanoTime();
+            Map<Path, Collection<MethodReport>> initial = new ConcurrentHashMap<>();
+            RepositoryScan.findSources(roots).parallelStream().forEach(file -> {
+                Collection<MethodReport> reports = analyze(file);
+                if (reports != null) initial.put(file, reports);
+            });
+            mode.index.load(initial);
+            System.out.printf("Watching %d files (loaded in %.2fs)%n",
+                    initial.size(), (System.nanoTime() - start) / 1e9);
+            mode.printHotspots();
+
+            mode.loop();
+        }
+    }
+
+    private void printHotspots() {
+        List<MethodReport> hotspots = index.hotspots(HOTSPOTS);
+        if (hotspots.isEmpty()) return;
+        System.out.println("Costliest methods, calls across files included:");
+        for (MethodReport r : hotspots) {
+            System.out.println("  " + Complexity.render(index.cost(r)) + "\t" + r.id());
+        }
+    }
+
+    private void loop() throws IOException, InterruptedException {
+        while (true) {
+            Set<Path> changed = new TreeSet<>();
+            WatchKey key = watcher.take();
+            do {
+                collect(key, changed);
+                key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+            } while (key != null);
+
+            for (Path file : changed) {
+                refresh(file);
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) throws IOException {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were dropped: fall back to re-checking every known file
+                changed.addAll(index.files());
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path);
+                changed.addAll(RepositoryScan.findSources(List.of(path)));
+            } else if (path.toString().endsWith(".java")) {
+                changed.add(path);
+            }
+        }
+        key.reset();
+    }
+
+    private void refresh(Path file) {
+        Collection<MethodReport> reports = null;
+        if (Files.isRegularFile(file)) {
+            reports = analyze(file);
+            if (reports == null) {
+                System.out.println(file + ": parse failed, keeping previous results");
+                return;
+            }
+        } else if (!index.files().contains(file)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Set<String> flipped = index.update(file, reports);
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+        System.out.println("================================");
+        System.out.println((reports == null ? "Removed: " : "Updated: ") + file
+                + " (call graph patched in " + micros + " us)");
+        for (MethodReport r : index.reports(file)) {
+            boolean recursive = index.isRecursive(r);
+            String time = Complexity.render(index.cost(r));
+            System.out.println("  " + r.id() + "\t" + time + "\t" + (recursive ? "O(n)" : "O(1)") + "\t" + r.loops);
+        }
+        if (!flipped.isEmpty()) {
+            System.out.println("Recursion changed for: " + new TreeSet<>(flipped));
+        }
+    }
+
+    private void register(Path root) throws IOException {
+        try (Stream<Path> dirs = Files.walk(root)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    /** Returns null if {@code file} cannot be read, parsed or walked to the end. */
+    private static Collection<MethodReport> analyze(Path file) {
+        try {
+            Budget budget = Budget.unlimited();
+            Collection<MethodReport> reports = Analyzer.analyze(Files.readAllBytes(file), budget);
+            if (budget.truncated()) {
+                // Partial results would drop methods from the call graph as if they were deleted
+                System.err.println(file + ": analysis failed: " + budget.truncation());
+                return null;
+            }
+            return reports;
+        } catch (IOException | ParseProblemException e) {
+            return null;
+        }
+    }
+}